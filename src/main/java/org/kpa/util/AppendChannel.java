@@ -0,0 +1,108 @@
+package org.kpa.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append only stream of a store file, kept open between batches. Writes are staged in a reusable direct buffer
+ * and reach the file when it fills up or on @{@link #commit()}, which also forces the file according to the
+ * @{@link FlushPolicy}. Used by a single writer thread.
+ */
+class AppendChannel extends OutputStream {
+    private static final int BUFFER_SIZE = 64 * 1_024;
+    final String fileName;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final FlushPolicy flushPolicy;
+    private final long intervalNanos;
+    private long lastForceNanos = System.nanoTime();
+    private boolean forcePending = false;
+    private int forces = 0;
+
+    AppendChannel(String fileName, FlushPolicy flushPolicy, long intervalMillis) throws IOException {
+        this.fileName = fileName;
+        this.flushPolicy = flushPolicy;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!buffer.hasRemaining()) drain();
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (length > buffer.remaining()) {
+            drain();
+            if (length > buffer.capacity()) {
+                writeFully(ByteBuffer.wrap(bytes, offset, length));
+                return;
+            }
+        }
+        buffer.put(bytes, offset, length);
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        if (!bytes.hasRemaining()) return;
+        while (bytes.hasRemaining()) channel.write(bytes);
+        forcePending = true;
+    }
+
+    /**
+     * Writes everything staged so far to the file, one batch of the group commit.
+     */
+    void commit() throws IOException {
+        drain();
+        switch (flushPolicy) {
+            case NONE:
+                break;
+            case INTERVAL:
+                if (System.nanoTime() - lastForceNanos < intervalNanos) break;
+                // fall through
+            case EVERY_BATCH:
+                force();
+                break;
+            default:
+                throw new IllegalStateException("Unknown flush policy: " + flushPolicy);
+        }
+    }
+
+    private void force() throws IOException {
+        if (!forcePending) return;
+        channel.force(false);
+        forces++;
+        forcePending = false;
+        lastForceNanos = System.nanoTime();
+    }
+
+    /**
+     * @return times the file was forced to the disk
+     */
+    int forces() {
+        return forces;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+            if (flushPolicy != FlushPolicy.NONE) force();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.kpa.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used decompressed blocks of the @{@link CompressedBlocks} files of a store, so that reads of
+ * neighbouring records inflate their block once.
+ */
+class BlockCache {
+    private volatile int capacity;
+    private final Map<Long, byte[]> blocks = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size() > capacity;
+        }
+    };
+    // guarded by this
+    private int inflated = 0;
+
+    BlockCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    byte[] get(CompressedBlocks file, int block) {
+        Long key = ((long) file.id << 32) | block;
+        synchronized (this) {
+            byte[] bytes = blocks.get(key);
+            if (bytes != null) return bytes;
+        }
+        // inflated outside the lock, concurrent misses of the same block may inflate it twice
+        byte[] bytes = file.inflate(block);
+        synchronized (this) {
+            inflated++;
+            blocks.put(key, bytes);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return how many blocks were inflated on a miss
+     */
+    synchronized int inflated() {
+        return inflated;
+    }
+}
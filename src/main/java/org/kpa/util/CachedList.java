@@ -2,39 +2,60 @@ package org.kpa.util;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.google.common.base.Preconditions;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
-
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Store backed list keeping its tail in memory. Appends, reloads and clears are serialized on the list; readers
+ * copy from the tail under optimistic @{@link StampedLock} reads, so they don't wait for appends. The lock itself
+ * is only write locked around array operations on the tail, never around store I/O.
+ *
+ * Sub lists beyond the tail are read from the store. Once such reads go sequentially, in either direction,
+ * the following windows are read ahead in the background and the next read is served from them.
+ */
 public class CachedList<T> extends StoredList<T> {
+    private static final int OPTIMISTIC_READS = 8;
+    private static final int READ_AHEAD_WINDOWS = 2;
+    private static final ExecutorService READ_AHEAD = DaemonNamedFactory.newCachedThreadPool("cache_read_ahead");
     private final int step;
     private int lastStartIndex = 0;
     private final int cacheCapacity;
     private final StoredList<T> store;
-    private List<T> lastSubList = new LinkedList<>();
+    private final RingBuffer<T> lastSubList;
+    private final StampedLock windowLock = new StampedLock();
+    // null while the tail is bounded by count only
+    private volatile ToIntFunction<? super T> tailWeigher;
+    private long maxTailBytes = Long.MAX_VALUE;
+    private long tailBytes = 0;
+    // 1000 items unless bounded by bytes
+    private final TieredCache<T> lastQueriedItems = new TieredCache<>(item -> 1, 1000, 1000);
+    private final Object readAheadLock = new Object();
+    private volatile ReadAhead<T> readAhead;
+    // bumped by every clear, records read before it are discarded
+    private volatile int clears = 0;
+    private int lastReadStart = -1;
+    private int lastReadTo = -1;
+    private final AtomicLong readAheadHits = new AtomicLong();
+    private final AtomicLong readAheadMisses = new AtomicLong();
     private static final Logger log = LoggerFactory.getLogger(CachedList.class);
-    private final LoadingCache<Integer, T> lastQueriedItems = CacheBuilder.newBuilder()
-            .expireAfterWrite(1, TimeUnit.HOURS).maximumSize(1000).weakValues().build(new CacheLoader<Integer, T>() {
-                @Override
-                public T load(@NotNull Integer key) {
-                    return store.get(key);
-                }
-            });
 
     private CachedList(StoredList<T> store, int cacheCapacity, int step) {
         this.store = store;
         this.cacheCapacity = cacheCapacity;
         this.step = step;
+        this.lastSubList = new RingBuffer<>(cacheCapacity + step);
     }
 
     int getCachedSize() {
@@ -44,30 +65,74 @@ public class CachedList<T> extends StoredList<T> {
     void clearCache() {
         synchronized (this) {
             log.info("Clearing cache: {}", this);
-            lastStartIndex = -1;
-            lastSubList = new LinkedList<>();
+            resetWindow(-1);
+        }
+    }
+
+    private void resetWindow(int startIndex) {
+        long stamp = windowLock.writeLock();
+        try {
+            lastStartIndex = startIndex;
+            lastSubList.clear();
+            tailBytes = 0;
+        } finally {
+            windowLock.unlockWrite(stamp);
         }
     }
 
     @Override
     public boolean addAll(@NotNull Collection<? extends T> strings) {
         synchronized (this) {
-            store.addAll(strings);
-            lastSubList.addAll(strings);
-            evict();
+            // the tail is appended first, so that readers never see the store size ahead of it
+            appendToWindow(strings);
+            try {
+                store.addAll(strings);
+            } catch (RuntimeException e) {
+                resetWindow(-1);
+                throw e;
+            }
         }
         return true;
     }
 
+    private void appendToWindow(Collection<? extends T> items) {
+        long stamp = windowLock.writeLock();
+        try {
+            ToIntFunction<? super T> weigher = tailWeigher;
+            for (T item : items) {
+                lastSubList.add(item);
+                if (weigher != null) tailBytes += weigher.applyAsInt(item);
+            }
+            evict();
+        } finally {
+            windowLock.unlockWrite(stamp);
+        }
+    }
+
     private void evict() {
-        synchronized (this) {
-            int delta = Math.max(lastSubList.size() - cacheCapacity, 0);
-            if (delta >= step) {
-                lastSubList.subList(0, delta).clear();
-                lastStartIndex += delta;
-                log.debug("Evicting cache to new index {}", lastStartIndex);
+        int delta = Math.max(lastSubList.size() - cacheCapacity, 0);
+        if (delta >= step) removeOldest(delta);
+        // the newest item is kept whatever it weighs
+        while (tailBytes > maxTailBytes && lastSubList.size() > 1) removeOldest(1);
+    }
+
+    /**
+     * Items of a tail bounded by bytes are demoted to the recently queried items.
+     */
+    private void removeOldest(int count) {
+        ToIntFunction<? super T> weigher = tailWeigher;
+        if (weigher != null) {
+            synchronized (lastQueriedItems) {
+                for (int i = 0; i < count; i++) {
+                    T item = lastSubList.get(i);
+                    tailBytes -= weigher.applyAsInt(item);
+                    if (lastStartIndex >= 0) lastQueriedItems.put(lastStartIndex + i, item);
+                }
             }
         }
+        lastSubList.removeFirst(count);
+        lastStartIndex += count;
+        log.debug("Evicting cache to new index {}", lastStartIndex);
     }
 
     int getLastStartIndex() {
@@ -76,60 +141,235 @@ public class CachedList<T> extends StoredList<T> {
 
     @Override
     public boolean add(T strings) {
-        synchronized (this) {
-            store.add(strings);
-            lastSubList.add(strings);
-            evict();
+        return addAll(Collections.singletonList(strings));
+    }
+
+    /**
+     * @return the items of the tail from startIndex to toIndex, null if the tail doesn't hold startIndex
+     */
+    private List<T> readWindow(int startIndex, int toIndex) {
+        for (int attempt = 0; attempt < OPTIMISTIC_READS; attempt++) {
+            long stamp = windowLock.tryOptimisticRead();
+            if (stamp == 0) continue;
+            try {
+                List<T> items = copyWindow(startIndex, toIndex);
+                if (windowLock.validate(stamp)) return items;
+            } catch (RuntimeException e) {
+                // a torn read of a tail being appended fails validation, anything else is a real error
+                if (windowLock.validate(stamp)) throw e;
+            }
+        }
+        long stamp = windowLock.readLock();
+        try {
+            return copyWindow(startIndex, toIndex);
+        } finally {
+            windowLock.unlockRead(stamp);
         }
-        return true;
     }
 
-    private void reloadCacheIfRequired() {
+    private List<T> copyWindow(int startIndex, int toIndex) {
+        int startIncl = startIndex - lastStartIndex;
+        int cachedSize = lastSubList.size();
+        if (lastStartIndex < 0 || startIncl < 0 || startIncl >= cachedSize) return null;
+        return lastSubList.copy(startIncl, Math.min(cachedSize, toIndex - lastStartIndex));
+    }
+
+    private List<T> reloadWindow(int startIndex, int toIndex) {
         synchronized (this) {
-            if (lastStartIndex >= 0 && lastStartIndex <= size() - cacheCapacity) {
-                return;
+            // appends are excluded here, the tail may have been reloaded by another reader meanwhile
+            List<T> items = copyWindow(startIndex, toIndex);
+            if (items != null) return items;
+            int size = size();
+            int start = Math.max(size - cacheCapacity, store.getFirstIndex());
+            log.info("Cache miss. Reload from index: {}. This={}", start, this);
+            List<T> loaded = store.subList(start, size);
+            resetWindow(start);
+            appendToWindow(loaded);
+            items = copyWindow(startIndex, toIndex);
+            if (items == null && tailWeigher != null) {
+                // the tail bounded by bytes doesn't reach back to startIndex
+                return startIndex >= start ? new ArrayList<>(loaded.subList(startIndex - start, toIndex - start))
+                        : store.subList(startIndex, toIndex);
+            }
+            if (items == null) {
+                throw new IllegalStateException(
+                        String.format("Wrong state for cache: %s. lastSubList.size=%s, lastStartIndex=%s, " +
+                                        "startIndex=%s, toIndex=%s",
+                                this, lastSubList.size(), lastStartIndex, startIndex, toIndex));
             }
-            lastStartIndex = Math.max(size() - cacheCapacity, 0);
-            log.info("Cache miss. Reload from index: {}. This={}", lastStartIndex, this);
-            lastSubList = store.subList(lastStartIndex, size());
+            return items;
         }
     }
 
+    /**
+     * Served from the cached tail when the index is in it, from the recently queried items otherwise,
+     * and only then from the store.
+     */
     @Override
     public T get(int index) {
-        try {
-            return lastQueriedItems.get(index);
-        } catch (ExecutionException e) {
-            throw new RuntimeException(e);
+        List<T> cached = readWindow(index, index + 1);
+        if (cached != null) return cached.get(0);
+        T item;
+        synchronized (lastQueriedItems) {
+            item = lastQueriedItems.get(index);
+        }
+        if (item != null) return item;
+        item = store.get(index);
+        synchronized (lastQueriedItems) {
+            lastQueriedItems.put(index, item);
         }
+        return item;
     }
 
     @Override
     public List<T> subList(int startIndex, int toIndex) {
         Preconditions.checkArgument(toIndex >= startIndex,
                 "Invalid toIndex: %s. Size: %s. startIndex=%s", toIndex, size(), startIndex);
-        if (startIndex >= size()) {
+        int size = size();
+        if (startIndex >= size) {
             log.debug("Out of bounds requested(empty list returned): startIndex={}, this={}", startIndex, this);
             return Collections.emptyList();
         }
+        toIndex = Math.min(size, toIndex);
+        if (size - startIndex > cacheCapacity) {
+            log.info("Request is more then cache capacity({}). Direct request from file at  {} to {}. This={}",
+                    size - startIndex, startIndex, size, this);
+            return readBeyondWindow(startIndex, toIndex);
+        }
+        List<T> items = readWindow(startIndex, toIndex);
+        if (items != null) return items;
+        // a tail bounded by bytes may hold fewer items than the capacity
+        if (tailWeigher != null && startIndex < lastStartIndex) return readBeyondWindow(startIndex, toIndex);
+        return reloadWindow(startIndex, toIndex);
+    }
+
+    /**
+     * Records read ahead from the store, from inclusive to exclusive.
+     */
+    private static class ReadAhead<T> {
+        final int from;
+        final int to;
+        final CompletableFuture<List<T>> items;
+
+        ReadAhead(int from, int to, CompletableFuture<List<T>> items) {
+            this.from = from;
+            this.to = to;
+            this.items = items;
+        }
+
+        boolean covers(int startIndex, int toIndex) {
+            return startIndex >= from && toIndex <= to;
+        }
+    }
+
+    private List<T> readBeyondWindow(int startIndex, int toIndex) {
+        List<T> items = null;
+        int clears = this.clears;
+        ReadAhead<T> readAhead = this.readAhead;
+        if (readAhead != null && readAhead.covers(startIndex, toIndex)) {
+            try {
+                // still being read, waiting for it is no slower than reading again
+                items = new ArrayList<>(readAhead.items.join()
+                        .subList(startIndex - readAhead.from, toIndex - readAhead.from));
+            } catch (CompletionException e) {
+                log.warn("Error reading ahead {}: {}", this, e.getMessage(), e);
+            }
+            if (this.clears != clears) {
+                log.debug("Cleared while reading ahead, discarded: {}", this);
+                items = null;
+                int size = size();
+                if (startIndex >= size) return Collections.emptyList();
+                toIndex = Math.min(size, toIndex);
+            }
+        }
+        if (items != null) {
+            readAheadHits.incrementAndGet();
+        } else {
+            readAheadMisses.incrementAndGet();
+            items = store.subList(startIndex, toIndex);
+        }
+        readAhead(startIndex, toIndex, clears);
+        return items;
+    }
+
+    /**
+     * Starts reading the next windows when the read continues the previous one. A window is read ahead together
+     * with the current one, so that reads moving by less than a window are served from it as well.
+     */
+    private void readAhead(int startIndex, int toIndex, int clears) {
+        synchronized (readAheadLock) {
+            if (this.clears != clears) return;
+            boolean forward = startIndex > lastReadStart && startIndex <= lastReadTo;
+            boolean backward = toIndex < lastReadTo && toIndex >= lastReadStart;
+            lastReadStart = startIndex;
+            lastReadTo = toIndex;
+            if (!forward && !backward) return;
+            int window = Math.max(toIndex - startIndex, step);
+            int from = forward ? startIndex : Math.max(startIndex - READ_AHEAD_WINDOWS * window, store.getFirstIndex());
+            int to = forward ? Math.min(toIndex + READ_AHEAD_WINDOWS * window, size()) : toIndex;
+            ReadAhead<T> current = readAhead;
+            int nextFrom = forward ? toIndex : Math.max(startIndex - window, from);
+            int nextTo = forward ? Math.min(toIndex + window, to) : startIndex;
+            if (current != null && current.covers(nextFrom, nextTo) || from >= to) return;
+            log.debug("Reading ahead from {} to {}: {}", from, to, this);
+            readAhead = new ReadAhead<>(from, to, CompletableFuture.supplyAsync(() -> store.subList(from, to), READ_AHEAD));
+        }
+    }
+
+    /**
+     * Bounds the cached tail by heap bytes measured by the weigher as well as by the cache capacity. Items evicted
+     * from the tail are demoted to the recently queried items instead of dropped.
+     */
+    public CachedList<T> tailBytes(ToIntFunction<? super T> weigher, long maxBytes) {
+        Preconditions.checkNotNull(weigher, "weigher");
+        Preconditions.checkArgument(maxBytes > 0, "Invalid maxBytes: %s", maxBytes);
         synchronized (this) {
-            toIndex = Math.min(size(), toIndex);
-            if (size() - startIndex > cacheCapacity) {
-                log.info("Request is more then cache capacity({}). Direct request from file at  {} to {}. This={}",
-                        size() - startIndex, startIndex, size(), this);
-                return store.subList(startIndex, toIndex);
-            }
-            reloadCacheIfRequired();
-            int startIncl = startIndex - lastStartIndex;
-            int endExcl = Math.min(lastSubList.size(), startIncl + toIndex - startIndex);
-            if (startIncl >= endExcl) {
-                throw new IllegalStateException(
-                        String.format("Wrong state for cache: %s. startIncl=%s, endExcl=%s, " +
-                                        "lastSubList.size=%s, lastStartIndex=%s, startIndex=%s, toIndex=%s",
-                                this, startIncl, endExcl, lastSubList.size(), lastStartIndex, startIndex, toIndex));
+            long stamp = windowLock.writeLock();
+            try {
+                tailWeigher = weigher;
+                maxTailBytes = maxBytes;
+                tailBytes = 0;
+                for (int i = 0; i < lastSubList.size(); i++) tailBytes += weigher.applyAsInt(lastSubList.get(i));
+                evict();
+            } finally {
+                windowLock.unlockWrite(stamp);
             }
-            return Collections.unmodifiableList(lastSubList.subList(startIncl, endExcl));
         }
+        return this;
+    }
+
+    long getCachedBytes() {
+        return tailBytes;
+    }
+
+    /**
+     * Bounds the recently queried items by heap bytes measured by the weigher, and by maxHeapItems. The least
+     * recently queried items over either bound are serialized by the codec to a direct buffer of offHeapBytes rather
+     * than dropped, the oldest ones evicted from there are read from the store again.
+     *
+     * @param codec null to drop items over the heap bounds right away
+     */
+    public CachedList<T> queriedItemsBytes(ToIntFunction<? super T> weigher, long heapBytes, int maxHeapItems,
+                                           RecordCodec<T> codec, int offHeapBytes) {
+        Preconditions.checkArgument(codec == null || offHeapBytes > 0, "Invalid offHeapBytes: %s", offHeapBytes);
+        synchronized (lastQueriedItems) {
+            lastQueriedItems.configure(weigher, heapBytes, maxHeapItems, codec, offHeapBytes);
+        }
+        return this;
+    }
+
+    /**
+     * @return reads beyond the tail served from records read ahead
+     */
+    public long getReadAheadHits() {
+        return readAheadHits.get();
+    }
+
+    /**
+     * @return reads beyond the tail that went to the store
+     */
+    public long getReadAheadMisses() {
+        return readAheadMisses.get();
     }
 
     @NotNull
@@ -140,9 +380,7 @@ public class CachedList<T> extends StoredList<T> {
 
     @Override
     public int size() {
-        synchronized (this) {
-            return store.size();
-        }
+        return store.size();
     }
 
     @Override
@@ -160,9 +398,18 @@ public class CachedList<T> extends StoredList<T> {
     @Override
     public void clear() {
         synchronized (this) {
-            store.clear();
-            lastSubList.clear();
-            lastStartIndex = 0;
+            resetWindow(0);
+            // no read ahead starts until the store is cleared, the ones in flight are discarded by their readers
+            synchronized (readAheadLock) {
+                clears++;
+                readAhead = null;
+                lastReadStart = -1;
+                lastReadTo = -1;
+                store.clear();
+            }
+            synchronized (lastQueriedItems) {
+                lastQueriedItems.clear();
+            }
         }
     }
 
@@ -180,10 +427,15 @@ public class CachedList<T> extends StoredList<T> {
 
 
     public static CachedList<String[]> createCachedStringArray(String id, int cacheCapacity, int step) {
-        return new CachedList<>(new FileStoredList<>(id,
-                (file, strings) -> Json.toFile(file, strings.stream().map(StringArray::new), StandardOpenOption.APPEND),
-                (file, startIndex) ->
-                        Utils.convert(Json.iterableFile(file, StringArray.class, null, startIndex), sa -> sa.data).iterator()), cacheCapacity, step);
+        return createCachedStringArray(id, cacheCapacity, step, false);
+    }
+
+    public static CachedList<String[]> createCachedStringArray(String id, int cacheCapacity, int step, boolean mappedReads) {
+        FileStoredList<String[]> store = new FileStoredList<>(id,
+                (String[] strings) -> Json.writeObject(new StringArray(strings)),
+                line -> Json.readObject(line, StringArray.class).data);
+        if (mappedReads) store.mappedReads();
+        return new CachedList<>(store, cacheCapacity, step);
     }
 
     public static <T> CachedList<T> createCached(String id, int cacheCapacity, int step,
@@ -192,6 +444,20 @@ public class CachedList<T> extends StoredList<T> {
         return new CachedList<T>(new FileStoredList<>(id, addAllFunc, iteratorFunc), cacheCapacity, step);
     }
 
+    public static CachedList<String[]> createCachedBinaryStringArray(String id, int cacheCapacity, int step) {
+        return createCachedBinary(id, cacheCapacity, step, RecordCodecs.STRING_ARRAY);
+    }
+
+    public static <T> CachedList<T> createCachedBinary(String id, int cacheCapacity, int step, RecordCodec<T> codec) {
+        return new CachedList<>(new FileStoredList<>(id, codec), cacheCapacity, step);
+    }
+
+    public static <T> CachedList<T> createCachedLines(String id, int cacheCapacity, int step,
+                                                      BiConsumer<String, Collection<? extends T>> addAllFunc,
+                                                      Function<String, T> lineParser) {
+        return new CachedList<T>(new FileStoredList<>(id, addAllFunc, lineParser), cacheCapacity, step);
+    }
+
     @NotNull
     @Override
     public ListIterator<T> listIterator(int index) {
@@ -205,7 +471,9 @@ public class CachedList<T> extends StoredList<T> {
             @Override
             public T next() {
                 T next = iterator.next();
-                lastQueriedItems.put(iterator.previousIndex(), next);
+                synchronized (lastQueriedItems) {
+                    lastQueriedItems.put(iterator.previousIndex(), next);
+                }
                 return next;
             }
 
@@ -251,4 +519,14 @@ public class CachedList<T> extends StoredList<T> {
         return store.iterator(index);
     }
 
+    @Override
+    public int getFirstIndex() {
+        return store.getFirstIndex();
+    }
+
+    @Override
+    protected int splitIndex(int from, int to) {
+        return store.splitIndex(from, to);
+    }
+
 }
@@ -0,0 +1,237 @@
+package org.kpa.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Records of a sealed @{@link Segment} compressed in independent deflate blocks of whole records. The block index
+ * maps a block to its position in the compressed file and to the range of raw offsets it holds, so reading a record
+ * inflates a single block; record offsets keep coming from the @{@link OffsetIndex} of the segment.
+ *
+ * The block index is written as a footer after the blocks, so a durable store reopens the file without inflating it.
+ */
+class CompressedBlocks {
+    private static final int FOOTER_MAGIC = 0x4b504142;
+    private static final int BLOCK_ENTRY_BYTES = 2 * Integer.BYTES + Long.BYTES + Long.BYTES + Integer.BYTES;
+    private static final int TRAILER_BYTES = Long.BYTES + 2 * Integer.BYTES;
+    private static final AtomicInteger ids = new AtomicInteger();
+    final int id = ids.incrementAndGet();
+    final String fileName;
+    private final OffsetIndex index;
+    private final BlockCache cache;
+    private final int[] firstRecords;
+    private final long[] rawOffsets;
+    private final int[] rawLengths;
+    private final long[] fileOffsets;
+    private final int[] fileLengths;
+    private FileChannel channel;
+
+    private CompressedBlocks(String fileName, OffsetIndex index, BlockCache cache, int blocks, int[] firstRecords,
+                             long[] rawOffsets, int[] rawLengths, long[] fileOffsets, int[] fileLengths) {
+        this.fileName = fileName;
+        this.index = index;
+        this.cache = cache;
+        this.firstRecords = Arrays.copyOf(firstRecords, blocks);
+        this.rawOffsets = Arrays.copyOf(rawOffsets, blocks);
+        this.rawLengths = Arrays.copyOf(rawLengths, blocks);
+        this.fileOffsets = Arrays.copyOf(fileOffsets, blocks);
+        this.fileLengths = Arrays.copyOf(fileLengths, blocks);
+    }
+
+    /**
+     * Writes the records of the raw segment file to fileName, about blockBytes of raw records per block.
+     */
+    static CompressedBlocks compress(String rawFileName, OffsetIndex index, String fileName, int blockBytes,
+                                     BlockCache cache) throws IOException {
+        int records = index.size();
+        int capacity = 16;
+        int[] firstRecords = new int[capacity];
+        long[] rawOffsets = new long[capacity];
+        int[] rawLengths = new int[capacity];
+        long[] fileOffsets = new long[capacity];
+        int[] fileLengths = new int[capacity];
+        int blocks = 0;
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (FileChannel in = FileChannel.open(Paths.get(rawFileName), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            byte[] compressed = new byte[Math.max(blockBytes, 1_024)];
+            long fileOffset = 0;
+            int record = 0;
+            while (record < records) {
+                int first = record;
+                long rawOffset = index.get(first);
+                do {
+                    record++;
+                } while (record < records && index.end(record) - rawOffset <= blockBytes);
+                byte[] raw = new byte[(int) (index.end(record - 1) - rawOffset)];
+                readFully(in, ByteBuffer.wrap(raw), rawOffset);
+                deflater.reset();
+                deflater.setInput(raw);
+                deflater.finish();
+                int fileLength = 0;
+                while (!deflater.finished()) {
+                    int length = deflater.deflate(compressed);
+                    ByteBuffer buffer = ByteBuffer.wrap(compressed, 0, length);
+                    while (buffer.hasRemaining()) out.write(buffer);
+                    fileLength += length;
+                }
+                if (blocks == capacity) {
+                    capacity *= 2;
+                    firstRecords = Arrays.copyOf(firstRecords, capacity);
+                    rawOffsets = Arrays.copyOf(rawOffsets, capacity);
+                    rawLengths = Arrays.copyOf(rawLengths, capacity);
+                    fileOffsets = Arrays.copyOf(fileOffsets, capacity);
+                    fileLengths = Arrays.copyOf(fileLengths, capacity);
+                }
+                firstRecords[blocks] = first;
+                rawOffsets[blocks] = rawOffset;
+                rawLengths[blocks] = raw.length;
+                fileOffsets[blocks] = fileOffset;
+                fileLengths[blocks] = fileLength;
+                blocks++;
+                fileOffset += fileLength;
+            }
+            ByteBuffer footer = ByteBuffer.allocate(blocks * BLOCK_ENTRY_BYTES + TRAILER_BYTES);
+            for (int block = 0; block < blocks; block++) {
+                footer.putInt(firstRecords[block]).putLong(rawOffsets[block]).putInt(rawLengths[block])
+                        .putLong(fileOffsets[block]).putInt(fileLengths[block]);
+            }
+            footer.putLong(fileOffset).putInt(blocks).putInt(FOOTER_MAGIC);
+            footer.flip();
+            while (footer.hasRemaining()) out.write(footer);
+            out.force(false);
+        } finally {
+            deflater.end();
+        }
+        return new CompressedBlocks(fileName, index, cache, blocks, firstRecords, rawOffsets, rawLengths,
+                fileOffsets, fileLengths);
+    }
+
+    /**
+     * Reopens blocks written by @{@link #compress} from the footer of the file.
+     */
+    static CompressedBlocks open(String fileName, OffsetIndex index, BlockCache cache) throws IOException {
+        try (FileChannel in = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long size = in.size();
+            if (size < TRAILER_BYTES) throw new IOException("No footer in " + fileName);
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+            readFully(in, trailer, size - TRAILER_BYTES);
+            long footerOffset = trailer.getLong(0);
+            int blocks = trailer.getInt(Long.BYTES);
+            if (trailer.getInt(Long.BYTES + Integer.BYTES) != FOOTER_MAGIC
+                    || footerOffset + (long) blocks * BLOCK_ENTRY_BYTES + TRAILER_BYTES != size) {
+                throw new IOException("Corrupted footer of " + fileName);
+            }
+            ByteBuffer footer = ByteBuffer.allocate(blocks * BLOCK_ENTRY_BYTES);
+            readFully(in, footer, footerOffset);
+            footer.flip();
+            int[] firstRecords = new int[blocks];
+            long[] rawOffsets = new long[blocks];
+            int[] rawLengths = new int[blocks];
+            long[] fileOffsets = new long[blocks];
+            int[] fileLengths = new int[blocks];
+            for (int block = 0; block < blocks; block++) {
+                firstRecords[block] = footer.getInt();
+                rawOffsets[block] = footer.getLong();
+                rawLengths[block] = footer.getInt();
+                fileOffsets[block] = footer.getLong();
+                fileLengths[block] = footer.getInt();
+            }
+            return new CompressedBlocks(fileName, index, cache, blocks, firstRecords, rawOffsets, rawLengths,
+                    fileOffsets, fileLengths);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) throw new IOException("Unexpected end of file at " + (position + buffer.position()));
+        }
+    }
+
+    int blocks() {
+        return firstRecords.length;
+    }
+
+    private int blockOf(int record) {
+        int block = Arrays.binarySearch(firstRecords, record);
+        return block >= 0 ? block : -block - 2;
+    }
+
+    byte[] inflate(int block) {
+        byte[] compressed = new byte[fileLengths[block]];
+        byte[] raw = new byte[rawLengths[block]];
+        Inflater inflater = new Inflater();
+        try {
+            readFully(channel(), ByteBuffer.wrap(compressed), fileOffsets[block]);
+            inflater.setInput(compressed);
+            int inflated = 0;
+            while (inflated < raw.length) {
+                int length = inflater.inflate(raw, inflated, raw.length - inflated);
+                if (length == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Truncated block " + block + " of " + fileName);
+                }
+                inflated += length;
+            }
+            return raw;
+        } catch (IOException | DataFormatException e) {
+            throw new RuntimeException("Error reading block " + block + " of " + fileName, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private synchronized FileChannel channel() throws IOException {
+        if (channel == null) channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        return channel;
+    }
+
+    AutoCloseableIterator<byte[]> records(int from, int to) {
+        return new AutoCloseableIterator<byte[]>() {
+            private int next = from;
+            private int block = -1;
+            private byte[] blockBytes;
+
+            @Override
+            public boolean hasNext() {
+                return next < to;
+            }
+
+            @Override
+            public byte[] next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                if (block < 0 || block + 1 < firstRecords.length && next >= firstRecords[block + 1]) {
+                    block = blockOf(next);
+                    blockBytes = cache.get(CompressedBlocks.this, block);
+                }
+                int offset = (int) (index.get(next) - rawOffsets[block]);
+                int length = (int) (index.end(next) - index.get(next));
+                next++;
+                return Arrays.copyOfRange(blockBytes, offset, offset + length);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    synchronized void delete() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        Files.deleteIfExists(Paths.get(fileName));
+    }
+}
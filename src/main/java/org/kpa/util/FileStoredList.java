@@ -1,68 +1,282 @@
 package org.kpa.util;
 
 import com.google.common.base.Preconditions;
-import com.pscap.utils.transport.ThreadedWorker;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class FileStoredList<T> extends StoredList<T> {
-    private File file;
+    private static final Pattern SEGMENT_FILE = Pattern.compile("segment-(\\d+)\\.dat(\\.z)?");
     public final String id;
+    // null for a temporary store
+    private final Path directory;
+    // oldest first, only the last one is appended to
+    private volatile Segment[] segments;
+    private volatile int generation = 0;
     private ItemWrap<T> lastWrap = null;
     private final AtomicInteger size = new AtomicInteger();
     private final AtomicLong storedSize = new AtomicLong();
     private final BiConsumer<String, Collection<? extends T>> addAllFunc;
     private final BiFunction<String, Integer, Iterator<T>> iteratorFunc;
-    private static final Set<FileStoredList> items = new CopyOnWriteArraySet<>();
+    private final Function<String, T> lineParser;
+    private final RecordCodec<T> codec;
+    private final Function<T, String> lineFormatter;
+    private AppendChannel appendChannel;
+    private Segment appendSegment;
+    private volatile FlushPolicy flushPolicy = FlushPolicy.NONE;
+    private volatile long flushIntervalMillis = 1_000;
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+    private final DataOutputStream recordOut = new DataOutputStream(recordBytes);
+    private int[] recordLengths = new int[1_024];
+    private volatile boolean mappedReads = false;
+    private volatile long maxSegmentBytes = Long.MAX_VALUE;
+    private volatile int maxSegmentRecords = Integer.MAX_VALUE;
+    private volatile int retainedRecords = Integer.MAX_VALUE;
+    private volatile long retainedBytes = Long.MAX_VALUE;
+    private volatile long retainedMillis = Long.MAX_VALUE;
+    private volatile int compressedBlockBytes = 0;
+    // scheduled compressions not finished yet, guarded by this
+    private int pendingCompressions = 0;
+    private final BlockCache blockCache = new BlockCache(16);
+    private volatile StoreWriter writer = StoreWriter.getDefault();
+    private final Queue<ItemWrap<T>> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private volatile Throwable writeError;
+    private volatile boolean closed = false;
     private static final Logger logger = LoggerFactory.getLogger(FileStoredList.class);
-    private static final ThreadedWorker<Object> executor = new ThreadedWorker<>(5_000, "str_cache",
-            o -> {
-                if (o == null || !(o instanceof ItemWrap)) {
-                    items.forEach(v -> v.process(null));
-                }
-                if (o != null) {
-                    if (o instanceof ItemWrap) {
-                        ((ItemWrap) o).list.process((ItemWrap) o);
-                    } else if (o instanceof Runnable) {
-                        ((Runnable) o).run();
-                    } else {
-                        throw new IllegalArgumentException("Unknown object: " + o);
-                    }
-                }
-            }, 1_024 * 1_024).printSlowOnQueueSize(5_000).blockingQueue();
 
     public FileStoredList(String id,
                           BiConsumer<String, Collection<? extends T>> addAllFunc,
                           BiFunction<String, Integer, Iterator<T>> iteratorFunc) {
+        this(null, id, addAllFunc, iteratorFunc, null, null, null);
+    }
+
+    /**
+     * Store of one record per line. Line start offsets are indexed as batches are appended,
+     * so reads seek straight to the requested record instead of rescanning the file.
+     */
+    public FileStoredList(String id,
+                          BiConsumer<String, Collection<? extends T>> addAllFunc,
+                          Function<String, T> lineParser) {
+        this(null, id, addAllFunc, null, lineParser, null, null);
+    }
+
+    /**
+     * Store of one record per line, formatted by the store itself and appended through a file channel kept open
+     * between batches. A formatted record must not contain line separators.
+     */
+    public FileStoredList(String id,
+                          Function<T, String> lineFormatter,
+                          Function<String, T> lineParser) {
+        this(null, id, null, null, Preconditions.checkNotNull(lineParser, "lineParser"),
+                null, Preconditions.checkNotNull(lineFormatter, "lineFormatter"));
+    }
+
+    /**
+     * Store of length prefixed binary records written by the codec, indexed as they are appended.
+     */
+    public FileStoredList(String id, RecordCodec<T> codec) {
+        this(null, id, null, null, null, Preconditions.checkNotNull(codec, "codec"), null);
+    }
+
+    /**
+     * Durable line formatting store kept in the directory, reopening the records it already holds. Segment files
+     * are kept on close, with their indexes checkpointed, so reopening doesn't rescan records written before.
+     */
+    public FileStoredList(Path directory,
+                          Function<T, String> lineFormatter,
+                          Function<String, T> lineParser) {
+        this(Preconditions.checkNotNull(directory, "directory"), directory.getFileName().toString(), null, null,
+                Preconditions.checkNotNull(lineParser, "lineParser"), null,
+                Preconditions.checkNotNull(lineFormatter, "lineFormatter"));
+    }
+
+    /**
+     * Durable binary store kept in the directory, see @{@link #FileStoredList(Path, Function, Function)}.
+     */
+    public FileStoredList(Path directory, RecordCodec<T> codec) {
+        this(Preconditions.checkNotNull(directory, "directory"), directory.getFileName().toString(), null, null,
+                null, Preconditions.checkNotNull(codec, "codec"), null);
+    }
+
+    private FileStoredList(Path directory,
+                           String id,
+                           BiConsumer<String, Collection<? extends T>> addAllFunc,
+                           BiFunction<String, Integer, Iterator<T>> iteratorFunc,
+                           Function<String, T> lineParser,
+                           RecordCodec<T> codec,
+                           Function<T, String> lineFormatter) {
+        this.directory = directory;
         this.id = id;
         this.addAllFunc = addAllFunc;
         this.iteratorFunc = iteratorFunc;
-        updateFileName();
-        items.add(this);
+        this.lineParser = lineParser;
+        this.codec = codec;
+        this.lineFormatter = lineFormatter;
+        if (directory == null) {
+            segments = new Segment[]{newSegment(generation, 0)};
+        } else {
+            segments = openSegments();
+            size.set(activeSegment().endIndex());
+            storedSize.set(size.get());
+        }
+    }
+
+    /**
+     * Reopens the segment files of the directory. All but the last one were sealed by the previous run.
+     */
+    private Segment[] openSegments() {
+        long started = System.currentTimeMillis();
+        try {
+            Files.createDirectories(directory);
+            SortedSet<Integer> baseIndexes = new TreeSet<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Matcher matcher = SEGMENT_FILE.matcher(file.getFileName().toString());
+                    if (matcher.matches()) baseIndexes.add(Integer.parseInt(matcher.group(1)));
+                }
+            }
+            if (baseIndexes.isEmpty()) return new Segment[]{newSegment(generation, 0)};
+            Segment[] segments = new Segment[baseIndexes.size()];
+            int i = 0;
+            for (int baseIndex : baseIndexes) {
+                Segment segment = Segment.recover(generation, baseIndex, segmentFileName(baseIndex),
+                        lineFormatter != null, blockCache);
+                if (i > 0 && segments[i - 1].endIndex() != baseIndex) {
+                    throw new IOException("Records missing before " + segment + ", previous: " + segments[i - 1]);
+                }
+                segments[i++] = segment;
+            }
+            for (i = 0; i < segments.length - 1; i++) {
+                segments[i].seal(Files.getLastModifiedTime(segments[i].checkpointPath()).toMillis());
+            }
+            logger.info("Opened {} records in {} segments of {} in {} ms", segments[segments.length - 1].endIndex()
+                    - segments[0].baseIndex, segments.length, directory, System.currentTimeMillis() - started);
+            return segments;
+        } catch (IOException e) {
+            throw new RuntimeException("Error opening store " + directory, e);
+        }
+    }
+
+    private String segmentFileName(int baseIndex) {
+        return directory.resolve(String.format("segment-%010d.dat", baseIndex)).toAbsolutePath().toString();
+    }
+
+    /**
+     * Persists appends of this store with the given writer pool instead of the default one.
+     */
+    public FileStoredList<T> writeWith(StoreWriter writer) {
+        this.writer = Preconditions.checkNotNull(writer, "writer");
+        return this;
+    }
+
+    /**
+     * Sets when appends of a binary or line formatting store are forced to disk. Applies to the files opened
+     * after the call, so it is meant to be set before the first append.
+     *
+     * @param intervalMillis minimal time between two forces of @{@link FlushPolicy#INTERVAL}
+     */
+    public FileStoredList<T> flushPolicy(FlushPolicy flushPolicy, long intervalMillis) {
+        Preconditions.checkState(codec != null || lineFormatter != null,
+                "Flush policy requires a store writing its own records: %s", this);
+        Preconditions.checkArgument(intervalMillis >= 0, "Invalid intervalMillis: %s", intervalMillis);
+        this.flushPolicy = Preconditions.checkNotNull(flushPolicy, "flushPolicy");
+        this.flushIntervalMillis = intervalMillis;
+        return this;
+    }
+
+    public FileStoredList<T> flushPolicy(FlushPolicy flushPolicy) {
+        return flushPolicy(flushPolicy, flushIntervalMillis);
+    }
+
+    /**
+     * Switches indexed reads to decode records straight from memory mapped segments of the store files,
+     * instead of opening a reader over the file for every read.
+     */
+    public FileStoredList<T> mappedReads() {
+        checkIndexed("Mapped reads");
+        mappedReads = true;
+        return this;
+    }
+
+    /**
+     * Rolls appends over to a new segment file once the current one holds maxSegmentBytes or maxSegmentRecords.
+     * The limits are checked after every written batch, so a segment may exceed them by one batch.
+     */
+    public FileStoredList<T> rollSegments(long maxSegmentBytes, int maxSegmentRecords) {
+        checkIndexed("Segments");
+        Preconditions.checkArgument(maxSegmentBytes > 0, "Invalid maxSegmentBytes: %s", maxSegmentBytes);
+        Preconditions.checkArgument(maxSegmentRecords > 0, "Invalid maxSegmentRecords: %s", maxSegmentRecords);
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentRecords = maxSegmentRecords;
+        return this;
+    }
+
+    /**
+     * Drops the oldest sealed segments, file by file, while the retained records exceed maxRecords or maxBytes,
+     * or were sealed more than maxAgeMillis ago. Indexes of the remaining records don't change, reads of dropped
+     * ones throw @{@link IndexOutOfBoundsException}. Applied by the writer after every written batch.
+     */
+    public FileStoredList<T> retention(int maxRecords, long maxBytes, long maxAgeMillis) {
+        checkIndexed("Retention");
+        Preconditions.checkArgument(maxRecords > 0 && maxBytes > 0 && maxAgeMillis > 0,
+                "Invalid retention: maxRecords=%s, maxBytes=%s, maxAgeMillis=%s", maxRecords, maxBytes, maxAgeMillis);
+        this.retainedRecords = maxRecords;
+        this.retainedBytes = maxBytes;
+        this.retainedMillis = maxAgeMillis;
+        return this;
+    }
+
+    /**
+     * Compresses every segment once it is sealed, in deflate blocks of about blockBytes of records, on the writer
+     * pool. A read decompresses the one block holding the record; the last cachedBlocks decompressed blocks are
+     * kept. The segment being appended to is never compressed.
+     */
+    public FileStoredList<T> compressSealed(int blockBytes, int cachedBlocks) {
+        checkIndexed("Compression");
+        Preconditions.checkArgument(blockBytes > 0, "Invalid blockBytes: %s", blockBytes);
+        Preconditions.checkArgument(cachedBlocks > 0, "Invalid cachedBlocks: %s", cachedBlocks);
+        blockCache.setCapacity(cachedBlocks);
+        this.compressedBlockBytes = blockBytes;
+        Segment[] segments = this.segments;
+        // sealed by a previous run of a durable store
+        for (int i = 0; i < segments.length - 1; i++) {
+            Segment segment = segments[i];
+            if (!segment.isCompressed()) scheduleCompression(segment);
+        }
+        return this;
+    }
+
+    private void checkIndexed(String feature) {
+        Preconditions.checkState(lineParser != null || codec != null, "%s require an indexed store: %s", feature, this);
     }
 
     private static class ItemWrap<T> {
         public final Collection<T> objects;
-        private final long storedSize;
-        private final FileStoredList<T> list;
-        final String fileName;
+        private long storedSize;
+        final int generation;
 
-        private ItemWrap(FileStoredList<T> list, Collection<T> objects, String fileName, long storedSize) {
-            this.list = list;
-            this.fileName = fileName;
+        private ItemWrap(Collection<T> objects, int generation, long storedSize) {
+            this.generation = generation;
             this.objects = objects;
             this.storedSize = storedSize;
         }
@@ -71,45 +285,301 @@ public class FileStoredList<T> extends StoredList<T> {
     private void process(ItemWrap<T> wrap) {
         try {
             if (wrap != null) {
-                if (lastWrap != null && !lastWrap.fileName.equals(wrap.fileName)) lastWrap = null;
+                if (lastWrap != null && lastWrap.generation != wrap.generation) lastWrap = null;
                 if (lastWrap == null)
-                    lastWrap = new ItemWrap<>(this, new ArrayList<>(), wrap.fileName, wrap.storedSize);
+                    lastWrap = new ItemWrap<>(new ArrayList<>(), wrap.generation, wrap.storedSize);
                 lastWrap.objects.addAll(wrap.objects);
-            } else {
-                addAllFunc.accept(lastWrap.fileName, lastWrap.objects);
+                lastWrap.storedSize = Math.max(lastWrap.storedSize, wrap.storedSize);
+            } else if (lastWrap != null) {
+                Segment active = activeSegment();
+                boolean current = active.generation == lastWrap.generation;
+                if (current) {
+                    if (codec != null || lineFormatter != null) {
+                        appendRecords(lastWrap.generation, lastWrap.objects);
+                    } else {
+                        // the caller writes the file, so its batch can't be split across segments
+                        addAllFunc.accept(active.fileName, lastWrap.objects);
+                        if (active.index != null) {
+                            active.index.scanLines(Paths.get(active.fileName), true);
+                            rollIfRequired(active);
+                        }
+                    }
+                    applyRetention();
+                }
                 lastWrap.objects.clear();
-                storedSize.set(lastWrap.storedSize);
+                synchronized (this) {
+                    if (lastWrap.generation == generation) {
+                        storedSize.accumulateAndGet(lastWrap.storedSize, Math::max);
+                    }
+                    notifyAll();
+                }
             }
         } catch (Throwable e) {
-            if (file == null || (wrap != null && file.getAbsolutePath().equalsIgnoreCase(wrap.fileName))) {
+            ItemWrap<T> failed = wrap != null ? wrap : lastWrap;
+            if (failed != null && failed.generation == generation) {
                 throw new RuntimeException(e);
             }
         }
     }
 
-    private void updateFileName() {
-        File oldFile = null;
+    private Segment activeSegment() {
+        Segment[] segments = this.segments;
+        return segments[segments.length - 1];
+    }
+
+    private Segment newSegment(int generation, int baseIndex) {
         try {
-            oldFile = this.file;
-            this.file = File.createTempFile("string_cache", id);
-            logger.info("New {} cache created: {}. modCount={}", id, this.file, modCount);
-            if (oldFile != null) {
-                Files.deleteIfExists(Paths.get(oldFile.toString()));
-            }
+            File file = directory == null ? File.createTempFile("string_cache", id)
+                    : Files.createFile(Paths.get(segmentFileName(baseIndex))).toFile();
+            logger.info("New {} cache created: {}. modCount={}", id, file, modCount);
+            return new Segment(generation, baseIndex, file.getAbsolutePath(), lineParser != null || codec != null);
         } catch (IOException e) {
-            if (oldFile != null) file.deleteOnExit();
             throw new RuntimeException(e);
         }
     }
 
+    private boolean isFull(Segment segment) {
+        return segment.bytes() >= maxSegmentBytes || segment.size() >= maxSegmentRecords;
+    }
+
+    private void rollIfRequired(Segment active) throws IOException {
+        if (isFull(active)) roll(active);
+    }
+
+    private void roll(Segment active) throws IOException {
+        Segment next;
+        synchronized (this) {
+            // a cleared durable store may already have a segment of the same file name
+            if (active.generation != generation) return;
+            next = newSegment(active.generation, active.endIndex());
+            active.seal();
+            Segment[] segments = Arrays.copyOf(this.segments, this.segments.length + 1);
+            segments[segments.length - 1] = next;
+            this.segments = segments;
+        }
+        closeChannel();
+        if (directory != null) active.saveIndex();
+        logger.debug("Rolled {} to {}", this, next);
+        if (compressedBlockBytes > 0) scheduleCompression(active);
+    }
+
+    private void scheduleCompression(Segment segment) {
+        synchronized (this) {
+            pendingCompressions++;
+        }
+        writer.schedule(() -> compress(segment));
+    }
+
+    private void compress(Segment segment) {
+        try {
+            // a closed store may be reopened meanwhile, so its files are left as they are
+            if (closed) return;
+            segment.compress(compressedBlockBytes, blockCache);
+            logger.debug("Compressed {}: {}", segment, this);
+        } catch (IOException | RuntimeException e) {
+            if (!segment.isDeleted()) logger.warn("Error compressing {}: {}", segment, e.getMessage(), e);
+        } finally {
+            synchronized (this) {
+                pendingCompressions--;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return how many segments are read from their compressed blocks
+     */
+    int compressedSegments() {
+        int compressed = 0;
+        for (Segment segment : segments) if (segment.isCompressed()) compressed++;
+        return compressed;
+    }
+
+    /**
+     * @return bytes of the records indexed so far, the store must be indexed
+     */
+    long storedBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) bytes += segment.bytes();
+        return bytes;
+    }
+
+    /**
+     * @return bytes of the segment files mapped by reads so far
+     */
+    long mappedBytes() {
+        long mapped = 0;
+        for (Segment segment : segments) mapped += segment.mappedBytes();
+        return mapped;
+    }
+
+    /**
+     * @return how many compressed blocks reads have inflated
+     */
+    int inflatedBlocks() {
+        return blockCache.inflated();
+    }
+
+    int segmentCount() {
+        return segments.length;
+    }
+
+    private synchronized void awaitCompressions() {
+        try {
+            while (pendingCompressions > 0) wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Closing with segments being compressed: {}", this);
+        }
+    }
+
+    private void applyRetention() throws IOException {
+        List<Segment> dropped = new ArrayList<>();
+        synchronized (this) {
+            Segment[] segments = this.segments;
+            int records = segments[segments.length - 1].endIndex() - segments[0].baseIndex;
+            long bytes = 0;
+            for (Segment segment : segments) bytes += segment.bytes();
+            long now = System.currentTimeMillis();
+            int first = 0;
+            // the last segment is never sealed, so never dropped
+            while (first < segments.length - 1) {
+                Segment oldest = segments[first];
+                if (records <= retainedRecords && bytes <= retainedBytes
+                        && now - oldest.getSealedMillis() <= retainedMillis) break;
+                records -= oldest.size();
+                bytes -= oldest.bytes();
+                dropped.add(oldest);
+                first++;
+            }
+            if (first > 0) this.segments = Arrays.copyOfRange(segments, first, segments.length);
+        }
+        for (Segment segment : dropped) {
+            segment.delete();
+            logger.info("Dropped by retention {}: {}", segment, this);
+        }
+    }
+
+    /**
+     * Appends the records as one group commit: encoded one by one into a reused buffer, written through the open
+     * channel of the segment file and forced according to the flush policy once per segment written to.
+     */
+    private void appendRecords(int generation, Collection<T> objects) throws IOException {
+        Iterator<T> records = objects.iterator();
+        while (records.hasNext()) {
+            Segment segment = activeSegment();
+            // cleared meanwhile
+            if (segment.generation != generation) return;
+            if (isFull(segment)) roll(segment);
+            else appendRecords(segment, records);
+        }
+        rollIfRequired(activeSegment());
+    }
+
+    private void appendRecords(Segment segment, Iterator<T> records) throws IOException {
+        OffsetIndex index = segment.index;
+        AppendChannel channel = openChannel(segment);
+        // cleared meanwhile, the file name may already be the one of the new segment
+        if (channel == null) return;
+        DataOutputStream out = new DataOutputStream(channel);
+        long bytes = segment.bytes();
+        int count = 0;
+        while (records.hasNext() && bytes < maxSegmentBytes && index.size() + count < maxSegmentRecords) {
+            T object = records.next();
+            recordBytes.reset();
+            int length;
+            if (codec != null) {
+                codec.encode(object, recordOut);
+                out.writeInt(recordBytes.size());
+                length = Integer.BYTES + recordBytes.size();
+            } else {
+                recordOut.write(lineFormatter.apply(object).getBytes(StandardCharsets.UTF_8));
+                recordOut.write('\n');
+                length = recordBytes.size();
+            }
+            recordBytes.writeTo(out);
+            if (count == recordLengths.length) recordLengths = Arrays.copyOf(recordLengths, count * 2);
+            recordLengths[count++] = length;
+            bytes += length;
+        }
+        channel.commit();
+        // index only once the records are written, readers never go past the index
+        long position = index.endOffset();
+        for (int i = 0; i < count; i++) {
+            index.add(position, position + recordLengths[i]);
+            position += recordLengths[i];
+        }
+    }
+
+    /**
+     * @return null if the segment was cleared
+     */
+    private synchronized AppendChannel openChannel(Segment segment) throws IOException {
+        if (appendChannel != null && appendSegment == segment) return appendChannel;
+        Preconditions.checkState(!closed, "Closed: %s", this);
+        if (segment.generation != generation) return null;
+        closeChannel();
+        appendChannel = new AppendChannel(segment.fileName, flushPolicy, flushIntervalMillis);
+        appendSegment = segment;
+        return appendChannel;
+    }
+
+    private synchronized void closeChannel() throws IOException {
+        if (appendChannel != null) {
+            try {
+                appendChannel.close();
+            } finally {
+                appendChannel = null;
+                appendSegment = null;
+            }
+        }
+    }
+
     @Override
     public boolean addAll(@NotNull Collection<? extends T> values) {
         if (values.size() == 0) return false;
+        validateWriteError();
         size.addAndGet(values.size());
-        executor.accept(new ItemWrap<>(this, (Collection<T>) values, file.getAbsolutePath(), size.get()));
+        pending.add(new ItemWrap<>((Collection<T>) values, generation, size.get()));
+        scheduleFlush();
         return true;
     }
 
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) writer.schedule(this::flush);
+    }
+
+    /**
+     * Writes all appends pending so far as one batch. Runs on a writer thread, never concurrently for the same store.
+     */
+    private void flush() {
+        try {
+            ItemWrap<T> wrap;
+            while ((wrap = pending.poll()) != null) {
+                if (!closed) process(wrap);
+            }
+            if (!closed) process(null);
+        } catch (Throwable e) {
+            if (closed) return;
+            logger.error("Error writing {}: {}", this, e.getMessage(), e);
+            writeError = e;
+            synchronized (this) {
+                notifyAll();
+            }
+        } finally {
+            flushScheduled.set(false);
+            // appends that came after the last poll found the flush still scheduled
+            if (!pending.isEmpty()) scheduleFlush();
+        }
+    }
+
+    private void validateWriteError() {
+        Throwable error = writeError;
+        if (error != null) {
+            throw new IllegalStateException("Got unprocessed exception writing " + this + ": " + error.getMessage(), error);
+        }
+    }
+
 
     private volatile int modCount = 0;
 
@@ -122,8 +592,16 @@ public class FileStoredList<T> extends StoredList<T> {
     public T get(int index) {
         logger.info("Getting from cache by index {}: {}", index, this);
         awaitForStoringIndex(index);
-        Iterator<? extends T> iter = iteratorFunc.apply(file.getAbsolutePath(), index);
-        return iter.next();
+        Iterator<T> iter = iterate(index);
+        try {
+            return iter.next();
+        } finally {
+            closeIterator(iter);
+        }
+    }
+
+    private static void closeIterator(Iterator<?> iter) {
+        if (iter instanceof AutoCloseableIterator) ((AutoCloseableIterator<?>) iter).close();
     }
 
     @Override
@@ -133,32 +611,205 @@ public class FileStoredList<T> extends StoredList<T> {
         awaitForStoringIndex(toIndex);
         logger.info("Getting from cache sublist from index {}: {}", startIndex, this);
         List<T> ret = new ArrayList<>();
-        Iterator<T> iter = iteratorFunc.apply(file.getAbsolutePath(), startIndex);
-        int index = startIndex;
-        while (iter.hasNext() && index++ < toIndex) {
-            ret.add(iter.next());
+        Iterator<T> iter = iterate(startIndex);
+        try {
+            int index = startIndex;
+            while (index++ < toIndex && iter.hasNext()) {
+                ret.add(iter.next());
+            }
+        } finally {
+            closeIterator(iter);
         }
         return ret;
     }
 
     private void awaitForStoringIndex(int index) {
-        if (index >= storedSize.get()) {
-            AtomicReference<Boolean> returned = new AtomicReference<>();
-            executor.accept((Runnable) () -> returned.set(true));
-            Utils.waitOrThrow(10_000, returned::get);
+        if (index < storedSize.get()) return;
+        long upTime = System.currentTimeMillis() + 10_000;
+        synchronized (this) {
+            // the store may be cleared while waiting, so the target is capped by the current size on every check
+            while (storedSize.get() < Math.min(index + 1, size.get())) {
+                validateWriteError();
+                long remaining = upTime - System.currentTimeMillis();
+                if (remaining <= 0) throw new RuntimeException(new TimeoutException("Not stored index " + index + ": " + this));
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
         }
     }
 
     public Iterator<T> iterator(int index) {
         logger.info("Getting iterator from file: {}", this);
         awaitForStoringIndex(size());
-        return iteratorFunc.apply(file.getAbsolutePath(), index);
+        return iterate(index);
+    }
+
+    private Iterator<T> iterate(int startIndex) {
+        Segment[] segments = this.segments;
+        if (segments[0].index == null) return iteratorFunc.apply(segments[0].fileName, startIndex);
+        int first = segmentOf(segments, startIndex);
+        boolean mapped = mappedReads;
+        return new AutoCloseableIterator<T>() {
+            private int segment = first;
+            private AutoCloseableIterator<byte[]> records = segments[first].records(
+                    startIndex - segments[first].baseIndex, segments[first].size(), mapped);
+
+            @Override
+            public boolean hasNext() {
+                while (!records.hasNext()) {
+                    if (segment + 1 == segments.length) return false;
+                    records.close();
+                    Segment next = segments[++segment];
+                    records = next.records(0, next.size(), mapped);
+                }
+                return true;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return decode(records.next());
+            }
+
+            @Override
+            public void close() {
+                records.close();
+            }
+        };
+    }
+
+    /**
+     * Iterator following the store as it grows: it reads the records stored from index on, then hasNext waits up to
+     * timeoutMillis for the writer to store the next batch and returns false if none came. It may be called again
+     * after that, so a consumer processes the store incrementally without reopening.
+     *
+     * @throws ConcurrentModificationException from hasNext once the store is cleared
+     */
+    public AutoCloseableIterator<T> tail(int index, long timeoutMillis) {
+        checkIndexed("Tailing");
+        Preconditions.checkArgument(index >= 0, "Invalid index: %s", index);
+        Preconditions.checkArgument(timeoutMillis >= 0, "Invalid timeoutMillis: %s", timeoutMillis);
+        int tailedGeneration = generation;
+        return new AutoCloseableIterator<T>() {
+            private int next = index;
+            private Iterator<T> records;
+
+            @Override
+            public boolean hasNext() {
+                if (records != null && records.hasNext()) return true;
+                if (!awaitStored(next, tailedGeneration, timeoutMillis)) return false;
+                // records written since the previous snapshot of the segments
+                closeIterator(records);
+                records = iterate(next);
+                return records.hasNext();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                T record = records.next();
+                next++;
+                return record;
+            }
+
+            @Override
+            public void close() {
+                closeIterator(records);
+                records = null;
+            }
+        };
+    }
+
+    /**
+     * Waits for the writer to store the index, signalled as every batch is stored.
+     *
+     * @return false if the index wasn't stored in timeoutMillis or the store was closed
+     */
+    private boolean awaitStored(int index, int generation, long timeoutMillis) {
+        long upTime = System.currentTimeMillis() + timeoutMillis;
+        synchronized (this) {
+            while (true) {
+                if (this.generation != generation) throw new ConcurrentModificationException("Cleared: " + this);
+                if (closed) return false;
+                if (index < storedSize.get()) return true;
+                validateWriteError();
+                long remaining = upTime - System.currentTimeMillis();
+                if (remaining <= 0) return false;
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits indexed stores by record ranges, the ones of a store without index are read sequentially.
+     */
+    @Override
+    public Spliterator<T> spliterator() {
+        if (lineParser == null && codec == null) return Spliterators.spliterator(iterator(), size(), Spliterator.ORDERED);
+        return super.spliterator();
+    }
+
+    /**
+     * @return the segment boundary nearest to the middle of the range if the range spans several segments,
+     * so that every split reads as few files as possible
+     */
+    @Override
+    protected int splitIndex(int from, int to) {
+        int middle = (from + to) >>> 1;
+        int split = -1;
+        for (Segment segment : segments) {
+            int boundary = segment.baseIndex;
+            if (boundary > from && boundary < to && (split < 0 || Math.abs(boundary - middle) < Math.abs(split - middle))) {
+                split = boundary;
+            }
+        }
+        return split < 0 ? middle : split;
+    }
+
+    /**
+     * @return position of the segment holding the logical index
+     */
+    private int segmentOf(Segment[] segments, int index) {
+        if (index < segments[0].baseIndex) {
+            throw new IndexOutOfBoundsException("Index " + index + " dropped by retention, first index: " +
+                    segments[0].baseIndex + ". " + this);
+        }
+        int low = 0;
+        int high = segments.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (segments[mid].baseIndex <= index) low = mid;
+            else high = mid - 1;
+        }
+        return low;
+    }
+
+    private T decode(byte[] record) {
+        if (codec != null) return codec.decode(ByteBuffer.wrap(record, Integer.BYTES, record.length - Integer.BYTES));
+        return lineParser.apply(new String(record, StandardCharsets.UTF_8).trim());
+    }
+
+    /**
+     * @return logical index of the oldest record not dropped by retention
+     */
+    @Override
+    public int getFirstIndex() {
+        return segments[0].baseIndex;
     }
 
     @NotNull
     @Override
     public Iterator<T> iterator() {
-        return iterator(0);
+        return iterator(getFirstIndex());
     }
 
     @Override
@@ -175,8 +826,22 @@ public class FileStoredList<T> extends StoredList<T> {
     @Override
     public void clear() {
         synchronized (this) {
-            updateFileName();
+            // deleted first, the new segment of a durable store reuses the file name of the first one
+            deleteSegments(segments);
+            segments = new Segment[]{newSegment(++generation, 0)};
             size.set(0);
+            storedSize.set(0);
+            notifyAll();
+        }
+    }
+
+    private void deleteSegments(Segment[] segments) {
+        for (Segment segment : segments) {
+            try {
+                segment.delete();
+            } catch (IOException e) {
+                logger.warn("Error deleting {}: {}", segment, e.getMessage(), e);
+            }
         }
     }
 
@@ -184,20 +849,34 @@ public class FileStoredList<T> extends StoredList<T> {
     @Override
     public void close() {
         doClose.runOnce(() -> {
+            if (directory != null) {
+                try {
+                    awaitForStoringIndex(size() - 1);
+                } catch (RuntimeException e) {
+                    logger.warn("Closing with appends not stored: {}. {}", e.getMessage(), this, e);
+                }
+            }
+            closed = true;
+            awaitCompressions();
             try {
-                Files.deleteIfExists(Paths.get(file.toString()));
-                items.remove(this);
-                logger.info("Cache disposed: {}", this);
+                closeChannel();
+                if (directory != null) activeSegment().saveIndex();
             } catch (IOException e) {
                 logger.warn("Cache dispose error: {}", e.getMessage(), e);
             }
+            if (directory == null) deleteSegments(segments);
+            synchronized (this) {
+                // wakes tailing iterators
+                notifyAll();
+            }
+            logger.info("Cache disposed: {}", this);
         });
     }
 
     @Override
     public String toString() {
         return "FileStoredList{" +
-                "file=" + file +
+                "file=" + (segments == null ? null : activeSegment().fileName) +
                 ", id='" + id + '\'' +
                 ", size=" + size.get() +
                 '}';
@@ -0,0 +1,20 @@
+package org.kpa.util;
+
+/**
+ * When appends of a @{@link FileStoredList} are forced from the OS page cache to the disk.
+ */
+public enum FlushPolicy {
+    /**
+     * Never forced, the OS writes the pages back on its own. Fastest, a crash of the machine may lose any recent
+     * batch.
+     */
+    NONE,
+    /**
+     * Forced with the first batch written after the interval since the previous force has elapsed.
+     */
+    INTERVAL,
+    /**
+     * Forced after every written batch.
+     */
+    EVERY_BATCH
+}
@@ -0,0 +1,188 @@
+package org.kpa.util;
+
+import java.util.Arrays;
+
+/**
+ * Least recently used cache of a fixed number of values by int key, without boxing. Keys are found through an
+ * open addressing table with linear probing; entries are linked in recency order through int arrays, so neither
+ * hits nor replacements allocate. Entries are kept dense, a removed entry is replaced by the last one.
+ * Not thread safe.
+ */
+class IntLruCache<T> {
+    private static final int NONE = -1;
+    private int capacity;
+    private int[] keys;
+    private Object[] values;
+    private int[] newer;
+    private int[] older;
+    // entry + 1 by key hash, 0 is a free position
+    private int[] table;
+    private int mask;
+    private int size = 0;
+    private int newest = NONE;
+    private int oldest = NONE;
+
+    IntLruCache(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity: " + capacity);
+        this.capacity = capacity;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        newer = new int[capacity];
+        older = new int[capacity];
+        table = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+        mask = table.length - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Grows the cache to hold at least capacity values, keeping values and their recency.
+     */
+    void ensureCapacity(int capacity) {
+        if (capacity <= this.capacity) return;
+        this.capacity = capacity;
+        keys = Arrays.copyOf(keys, capacity);
+        values = Arrays.copyOf(values, capacity);
+        newer = Arrays.copyOf(newer, capacity);
+        older = Arrays.copyOf(older, capacity);
+        table = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+        mask = table.length - 1;
+        for (int entry = 0; entry < size; entry++) table[find(keys[entry])] = entry + 1;
+    }
+
+    /**
+     * @return the least recently used key
+     */
+    int eldestKey() {
+        if (size == 0) throw new IllegalStateException("Empty");
+        return keys[oldest];
+    }
+
+    /**
+     * @return the removed value of the key, null if it isn't cached
+     */
+    @SuppressWarnings("unchecked")
+    T remove(int key) {
+        int position = find(key);
+        if (table[position] == 0) return null;
+        int entry = table[position] - 1;
+        T value = (T) values[entry];
+        unlink(entry);
+        freePosition(position);
+        int last = --size;
+        if (entry != last) {
+            // the last entry takes the free one, so entries stay dense
+            keys[entry] = keys[last];
+            values[entry] = values[last];
+            newer[entry] = newer[last];
+            older[entry] = older[last];
+            if (newer[entry] != NONE) older[newer[entry]] = entry;
+            else newest = entry;
+            if (older[entry] != NONE) newer[older[entry]] = entry;
+            else oldest = entry;
+            table[find(keys[entry])] = entry + 1;
+        }
+        values[last] = null;
+        return value;
+    }
+
+    /**
+     * @return the value of the key, null if it isn't cached. A hit makes the key the most recently used one.
+     */
+    @SuppressWarnings("unchecked")
+    T get(int key) {
+        int position = find(key);
+        if (table[position] == 0) return null;
+        int entry = table[position] - 1;
+        touch(entry);
+        return (T) values[entry];
+    }
+
+    void put(int key, T value) {
+        int position = find(key);
+        int entry;
+        if (table[position] != 0) {
+            entry = table[position] - 1;
+            touch(entry);
+        } else {
+            if (size < capacity) {
+                entry = size++;
+            } else {
+                entry = oldest;
+                unlink(entry);
+                freePosition(find(keys[entry]));
+                position = find(key);
+            }
+            keys[entry] = key;
+            table[position] = entry + 1;
+            linkNewest(entry);
+        }
+        values[entry] = value;
+    }
+
+    void clear() {
+        Arrays.fill(table, 0);
+        Arrays.fill(values, null);
+        size = 0;
+        newest = NONE;
+        oldest = NONE;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the table position of the key, or the free position it would be put at
+     */
+    private int find(int key) {
+        int position = hash(key) & mask;
+        while (table[position] != 0 && keys[table[position] - 1] != key) position = (position + 1) & mask;
+        return position;
+    }
+
+    /**
+     * Frees the table position, shifting back the entries of the probe sequence behind it.
+     */
+    private void freePosition(int position) {
+        int gap = position;
+        int next = (position + 1) & mask;
+        while (table[next] != 0) {
+            int home = hash(keys[table[next] - 1]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                table[gap] = table[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        table[gap] = 0;
+    }
+
+    private void touch(int entry) {
+        if (entry == newest) return;
+        unlink(entry);
+        linkNewest(entry);
+    }
+
+    private void unlink(int entry) {
+        if (newer[entry] != NONE) older[newer[entry]] = older[entry];
+        else newest = older[entry];
+        if (older[entry] != NONE) newer[older[entry]] = newer[entry];
+        else oldest = newer[entry];
+    }
+
+    private void linkNewest(int entry) {
+        newer[entry] = NONE;
+        older[entry] = newest;
+        if (newest != NONE) newer[newest] = entry;
+        newest = entry;
+        if (oldest == NONE) oldest = entry;
+    }
+}
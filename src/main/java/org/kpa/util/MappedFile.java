@@ -0,0 +1,86 @@
+package org.kpa.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Read only view of a growing file through fixed size @{@link MappedByteBuffer} segments. The tail segment is
+ * remapped when a read goes past the mapped end, every other read is a plain memory copy.
+ */
+class MappedFile implements AutoCloseable {
+    private static final int SEGMENT_BITS = 26;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+    final Path path;
+    private FileChannel channel;
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private volatile long mappedEnd = 0;
+
+    MappedFile(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * @return bytes of the file mapped so far
+     */
+    long mappedEnd() {
+        return mappedEnd;
+    }
+
+    byte[] read(long offset, int length) {
+        if (offset + length > mappedEnd) map(offset + length);
+        MappedByteBuffer[] segments = this.segments;
+        byte[] bytes = new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            long position = offset + copied;
+            ByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)].duplicate();
+            segment.position((int) (position & SEGMENT_MASK));
+            int count = Math.min(length - copied, segment.remaining());
+            segment.get(bytes, copied, count);
+            copied += count;
+        }
+        return bytes;
+    }
+
+    private synchronized void map(long end) {
+        if (end <= mappedEnd) return;
+        try {
+            if (channel == null) channel = FileChannel.open(path, StandardOpenOption.READ);
+            long size = channel.size();
+            if (end > size) throw new IllegalArgumentException("Read beyond end of " + path + ": " + end + " > " + size);
+            int first = (int) (mappedEnd >>> SEGMENT_BITS);
+            int last = (int) ((size - 1) >>> SEGMENT_BITS);
+            MappedByteBuffer[] segments = Arrays.copyOf(this.segments, last + 1);
+            for (int segment = first; segment <= last; segment++) {
+                long start = segment * SEGMENT_SIZE;
+                segments[segment] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+            this.segments = segments;
+            mappedEnd = size;
+        } catch (IOException e) {
+            throw new RuntimeException("Error mapping " + path, e);
+        }
+    }
+
+    /**
+     * Closes the channel. Segments already mapped stay readable, mappings are released once garbage collected.
+     */
+    @Override
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                channel = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.kpa.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Values by int key serialized by a @{@link RecordCodec} into one direct buffer, written as a ring log: a value is
+ * appended at the head and the oldest values are evicted to make room for it. Replaced or removed values stay in
+ * the buffer as dead bytes until the head passes them. Not thread safe.
+ */
+class OffHeapLog<T> {
+    private final RecordCodec<T> codec;
+    private final ByteBuffer buffer;
+    private final IntLruCache<Slot> slots = new IntLruCache<>(1_024);
+    // oldest first, including dead slots
+    private final ArrayDeque<Slot> log = new ArrayDeque<>();
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+    private final DataOutputStream recordOut = new DataOutputStream(recordBytes);
+    private int head = 0;
+    private long liveBytes = 0;
+
+    private static class Slot {
+        final int key;
+        final int offset;
+        final int length;
+
+        Slot(int key, int offset, int length) {
+            this.key = key;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    OffHeapLog(RecordCodec<T> codec, int capacityBytes) {
+        if (capacityBytes <= 0) throw new IllegalArgumentException("capacityBytes: " + capacityBytes);
+        this.codec = codec;
+        this.buffer = ByteBuffer.allocateDirect(capacityBytes);
+    }
+
+    int size() {
+        return slots.size();
+    }
+
+    /**
+     * @return serialized bytes of the values held
+     */
+    long bytes() {
+        return liveBytes;
+    }
+
+    /**
+     * Serializes the value, evicting the oldest values while there's no room for it.
+     * A value larger than the whole buffer isn't kept.
+     */
+    void put(int key, T value) {
+        Slot replaced = slots.remove(key);
+        if (replaced != null) liveBytes -= replaced.length;
+        recordBytes.reset();
+        try {
+            codec.encode(value, recordOut);
+        } catch (IOException e) {
+            throw new RuntimeException("Error serializing value of key " + key, e);
+        }
+        int length = recordBytes.size();
+        if (length > buffer.capacity()) return;
+        int offset = allocate(length);
+        ByteBuffer target = buffer.duplicate();
+        target.position(offset);
+        target.put(recordBytes.toByteArray());
+        Slot slot = new Slot(key, offset, length);
+        log.addLast(slot);
+        if (slots.size() == slots.capacity()) slots.ensureCapacity(slots.capacity() * 2);
+        slots.put(key, slot);
+        liveBytes += length;
+        head = offset + length;
+    }
+
+    /**
+     * @return the offset of length free bytes
+     */
+    private int allocate(int length) {
+        while (!log.isEmpty()) {
+            int tail = log.peekFirst().offset;
+            if (log.peekLast().offset >= tail) {
+                // not wrapped, free bytes are after head and before tail
+                if (head + length <= buffer.capacity()) return head;
+                if (length <= tail) return 0;
+            } else if (head + length <= tail) {
+                return head;
+            }
+            evictOldest();
+        }
+        return 0;
+    }
+
+    private void evictOldest() {
+        Slot oldest = log.pollFirst();
+        if (slots.get(oldest.key) == oldest) {
+            slots.remove(oldest.key);
+            liveBytes -= oldest.length;
+        }
+    }
+
+    /**
+     * @return the removed value of the key, null if it isn't held
+     */
+    T remove(int key) {
+        Slot slot = slots.remove(key);
+        if (slot == null) return null;
+        liveBytes -= slot.length;
+        ByteBuffer record = buffer.duplicate();
+        record.position(slot.offset).limit(slot.offset + slot.length);
+        return codec.decode(record.slice());
+    }
+
+    void clear() {
+        slots.clear();
+        log.clear();
+        head = 0;
+        liveBytes = 0;
+    }
+}
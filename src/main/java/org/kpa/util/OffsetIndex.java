@@ -0,0 +1,186 @@
+package org.kpa.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Start offsets of the records of a store file, one long per record followed by the end offset of the last one, kept
+ * in fixed size chunks so that growing never copies offsets. Appended by a single writer thread, read by any thread.
+ */
+class OffsetIndex {
+    private static final int CHECKPOINT_MAGIC = 0x4b50494e;
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    final String fileName;
+    private volatile long[][] chunks = new long[16][];
+    private volatile int size = 0;
+    private volatile long endOffset = 0;
+    private boolean lineHasContent = false;
+    private long lineStart = 0;
+
+    OffsetIndex(String fileName) {
+        this.fileName = fileName;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the offset right after the last indexed record
+     */
+    long endOffset() {
+        return endOffset;
+    }
+
+    long get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        return chunks[index >>> CHUNK_BITS][index & CHUNK_MASK];
+    }
+
+    /**
+     * @return the offset right after the record
+     */
+    long end(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        // written before size is published, so it's never older than the record
+        return chunks[(index + 1) >>> CHUNK_BITS][(index + 1) & CHUNK_MASK];
+    }
+
+    void add(long offset, long endOffset) {
+        int index = size;
+        set(index, offset);
+        set(index + 1, endOffset);
+        this.endOffset = endOffset;
+        size = index + 1;
+    }
+
+    private void set(int slot, long offset) {
+        int chunk = slot >>> CHUNK_BITS;
+        long[][] chunks = this.chunks;
+        if (chunk == chunks.length) chunks = Arrays.copyOf(chunks, chunks.length * 2);
+        if (chunks[chunk] == null) chunks[chunk] = new long[CHUNK_SIZE];
+        chunks[chunk][slot & CHUNK_MASK] = offset;
+        this.chunks = chunks;
+    }
+
+    /**
+     * Writes the offsets indexed so far to path, replacing the previous checkpoint atomically.
+     * Called by the writer thread only.
+     */
+    void save(Path path) throws IOException {
+        int size = this.size;
+        long endOffset = this.endOffset;
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1_024))) {
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeInt(size);
+            out.writeLong(endOffset);
+            for (int i = 0; i < size; i++) out.writeLong(get(i));
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads the offsets of a checkpoint written by @{@link #save} into this empty index.
+     *
+     * @param fileLength length the checkpointed file must have for the checkpoint to be current, -1 to skip the check
+     * @return false if there's no current checkpoint, the index is left empty then
+     */
+    boolean load(Path path, long fileLength) throws IOException {
+        if (size != 0) throw new IllegalStateException("Not empty: " + fileName);
+        if (!Files.exists(path)) return false;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES + Long.BYTES);
+            readFully(channel, header);
+            int size = header.getInt(Integer.BYTES);
+            long endOffset = header.getLong(2 * Integer.BYTES);
+            if (header.getInt(0) != CHECKPOINT_MAGIC || size < 0
+                    || channel.size() != header.capacity() + (long) size * Long.BYTES) return false;
+            if (fileLength >= 0 && fileLength != endOffset) return false;
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE * Long.BYTES);
+            int loaded = 0;
+            long offset = 0;
+            while (loaded < size) {
+                buffer.clear().limit(Math.min(CHUNK_SIZE, size - loaded) * Long.BYTES);
+                readFully(channel, buffer);
+                buffer.flip();
+                // every offset is added once the next one is known, so that it gets its end offset
+                while (buffer.hasRemaining()) {
+                    long next = buffer.getLong();
+                    if (loaded++ > 0) add(offset, next);
+                    offset = next;
+                }
+            }
+            if (size > 0) add(offset, endOffset);
+            return true;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new IOException("Unexpected end of file at " + channel.position());
+        }
+    }
+
+    /**
+     * Indexes the length prefixed records appended to the file after the last indexed one, stopping at a record
+     * written partially.
+     */
+    void scanRecords(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            long position = endOffset;
+            ByteBuffer prefix = ByteBuffer.allocate(Integer.BYTES);
+            while (position + Integer.BYTES <= fileSize) {
+                prefix.clear();
+                channel.position(position);
+                readFully(channel, prefix);
+                long end = position + Integer.BYTES + prefix.getInt(0);
+                if (end < position + Integer.BYTES || end > fileSize) break;
+                add(position, end);
+                position = end;
+            }
+        }
+    }
+
+    /**
+     * Indexes the lines appended to the file since the previous call.
+     *
+     * @param skipBlank true to skip blank lines the same way @{@link Utils#stringIterator} does, false to index every
+     *                  line, as a line is appended for every formatted record
+     */
+    void scanLines(Path path, boolean skipBlank) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1_024);
+            long position = lineStart;
+            channel.position(position);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    byte b = buffer.get();
+                    if (b == '\n') {
+                        if (lineHasContent || !skipBlank) add(lineStart, position + 1);
+                        lineStart = position + 1;
+                        lineHasContent = false;
+                    } else if ((b & 0xFF) > ' ') {
+                        lineHasContent = true;
+                    }
+                    position++;
+                }
+                buffer.clear();
+            }
+            // a trailing line without line separator is scanned again next time
+            lineHasContent = false;
+        }
+    }
+}
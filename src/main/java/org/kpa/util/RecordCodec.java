@@ -0,0 +1,20 @@
+package org.kpa.util;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary form of a record of a @{@link FileStoredList}. The store frames every encoded record with its length,
+ * so a codec only deals with the record body. See @{@link RecordCodecs} for the built in ones.
+ */
+public interface RecordCodec<T> {
+
+    void encode(T value, DataOutput out) throws IOException;
+
+    /**
+     * @param in buffer positioned at the record body, limited to its end
+     */
+    T decode(ByteBuffer in);
+
+}
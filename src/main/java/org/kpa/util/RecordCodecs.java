@@ -0,0 +1,131 @@
+package org.kpa.util;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class RecordCodecs {
+    private static final int NULL_LENGTH = -1;
+
+    public static final RecordCodec<String> STRING = new RecordCodec<String>() {
+        @Override
+        public void encode(String value, DataOutput out) throws IOException {
+            writeString(value, out);
+        }
+
+        @Override
+        public String decode(ByteBuffer in) {
+            return readString(in);
+        }
+    };
+
+    public static final RecordCodec<String[]> STRING_ARRAY = new RecordCodec<String[]>() {
+        @Override
+        public void encode(String[] value, DataOutput out) throws IOException {
+            if (value == null) {
+                out.writeInt(NULL_LENGTH);
+                return;
+            }
+            out.writeInt(value.length);
+            for (String string : value) writeString(string, out);
+        }
+
+        @Override
+        public String[] decode(ByteBuffer in) {
+            int length = in.getInt();
+            if (length == NULL_LENGTH) return null;
+            String[] value = new String[length];
+            for (int i = 0; i < length; i++) value[i] = readString(in);
+            return value;
+        }
+    };
+
+    public static final RecordCodec<long[]> LONG_ARRAY = new RecordCodec<long[]>() {
+        @Override
+        public void encode(long[] value, DataOutput out) throws IOException {
+            if (value == null) {
+                out.writeInt(NULL_LENGTH);
+                return;
+            }
+            out.writeInt(value.length);
+            for (long v : value) out.writeLong(v);
+        }
+
+        @Override
+        public long[] decode(ByteBuffer in) {
+            int length = in.getInt();
+            if (length == NULL_LENGTH) return null;
+            long[] value = new long[length];
+            in.asLongBuffer().get(value);
+            return value;
+        }
+    };
+
+    public static final RecordCodec<int[]> INT_ARRAY = new RecordCodec<int[]>() {
+        @Override
+        public void encode(int[] value, DataOutput out) throws IOException {
+            if (value == null) {
+                out.writeInt(NULL_LENGTH);
+                return;
+            }
+            out.writeInt(value.length);
+            for (int v : value) out.writeInt(v);
+        }
+
+        @Override
+        public int[] decode(ByteBuffer in) {
+            int length = in.getInt();
+            if (length == NULL_LENGTH) return null;
+            int[] value = new int[length];
+            in.asIntBuffer().get(value);
+            return value;
+        }
+    };
+
+    public static final RecordCodec<double[]> DOUBLE_ARRAY = new RecordCodec<double[]>() {
+        @Override
+        public void encode(double[] value, DataOutput out) throws IOException {
+            if (value == null) {
+                out.writeInt(NULL_LENGTH);
+                return;
+            }
+            out.writeInt(value.length);
+            for (double v : value) out.writeDouble(v);
+        }
+
+        @Override
+        public double[] decode(ByteBuffer in) {
+            int length = in.getInt();
+            if (length == NULL_LENGTH) return null;
+            double[] value = new double[length];
+            in.asDoubleBuffer().get(value);
+            return value;
+        }
+    };
+
+    private static void writeString(String value, DataOutput out) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length == NULL_LENGTH) return null;
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+}
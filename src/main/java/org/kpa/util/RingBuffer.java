@@ -0,0 +1,78 @@
+package org.kpa.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Growable array ring of the items of a window, indexed relative to its oldest item. Appending, dropping the
+ * oldest items and positional reads are O(1) per item. Not thread safe.
+ */
+class RingBuffer<T> {
+    private Object[] items;
+    private int head = 0;
+    private int size = 0;
+
+    RingBuffer(int initialCapacity) {
+        items = new Object[Integer.highestOneBit(Math.max(initialCapacity, 2) - 1) << 1];
+    }
+
+    int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        return (T) items[(head + index) & (items.length - 1)];
+    }
+
+    void add(T item) {
+        if (size == items.length) grow();
+        items[(head + size) & (items.length - 1)] = item;
+        size++;
+    }
+
+    /**
+     * Drops the count oldest items.
+     */
+    void removeFirst(int count) {
+        if (count < 0 || count > size) throw new IndexOutOfBoundsException("Count: " + count + ", size: " + size);
+        for (int i = 0; i < count; i++) {
+            items[head] = null;
+            head = (head + 1) & (items.length - 1);
+        }
+        size -= count;
+    }
+
+    void clear() {
+        Arrays.fill(items, null);
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * @return unmodifiable copy of the items from fromIndex inclusive to toIndex exclusive
+     */
+    @SuppressWarnings("unchecked")
+    List<T> copy(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("From: " + fromIndex + ", to: " + toIndex + ", size: " + size);
+        }
+        Object[] copy = new Object[toIndex - fromIndex];
+        int start = (head + fromIndex) & (items.length - 1);
+        int firstPart = Math.min(copy.length, items.length - start);
+        System.arraycopy(items, start, copy, 0, firstPart);
+        System.arraycopy(items, 0, copy, firstPart, copy.length - firstPart);
+        return Collections.unmodifiableList(Arrays.asList((T[]) copy));
+    }
+
+    private void grow() {
+        Object[] newItems = new Object[items.length * 2];
+        int firstPart = items.length - head;
+        System.arraycopy(items, head, newItems, 0, firstPart);
+        System.arraycopy(items, 0, newItems, firstPart, head);
+        items = newItems;
+        head = 0;
+    }
+}
@@ -0,0 +1,285 @@
+package org.kpa.util;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.NoSuchElementException;
+
+/**
+ * Contiguous range of the records of a @{@link FileStoredList} kept in one file, starting at the logical index
+ * baseIndex of the store. Only the last segment of a store is appended to; once the store rolls to a new one it
+ * is sealed and never changes again, so it can be dropped as a whole.
+ *
+ * The index of a segment of a durable store is checkpointed next to its file, so the segment is reopened without
+ * rescanning its records.
+ */
+class Segment {
+    private static final String COMPRESSED = ".z";
+    private static final String CHECKPOINT = ".idx";
+    final int generation;
+    final int baseIndex;
+    final String fileName;
+    final OffsetIndex index;
+    private MappedFile mappedFile;
+    private volatile CompressedBlocks blocks;
+    private boolean deleted = false;
+    private volatile long sealedMillis = 0;
+
+    /**
+     * @param indexed false for stores read through their own iterator function, whose records are not indexed
+     */
+    Segment(int generation, int baseIndex, String fileName, boolean indexed) {
+        this.generation = generation;
+        this.baseIndex = baseIndex;
+        this.fileName = fileName;
+        this.index = indexed ? new OffsetIndex(fileName) : null;
+    }
+
+    int size() {
+        return index.size();
+    }
+
+    int endIndex() {
+        return baseIndex + index.size();
+    }
+
+    long bytes() {
+        return index.endOffset();
+    }
+
+    boolean isSealed() {
+        return sealedMillis != 0;
+    }
+
+    long getSealedMillis() {
+        return sealedMillis;
+    }
+
+    void seal() {
+        seal(System.currentTimeMillis());
+    }
+
+    void seal(long sealedMillis) {
+        this.sealedMillis = sealedMillis;
+    }
+
+    Path checkpointPath() {
+        return Paths.get(fileName + CHECKPOINT);
+    }
+
+    /**
+     * Checkpoints the records indexed so far. Called by the writer thread only.
+     */
+    void saveIndex() throws IOException {
+        index.save(checkpointPath());
+    }
+
+    /**
+     * Reopens the segment file of a durable store. The index is loaded from the checkpoint when it matches the file;
+     * otherwise the file is rescanned, a record written partially is cut off and the checkpoint is rewritten.
+     *
+     * @param lines true for one formatted record per line, blank ones included, false for length prefixed records
+     */
+    static Segment recover(int generation, int baseIndex, String fileName, boolean lines, BlockCache cache)
+            throws IOException {
+        Segment segment = new Segment(generation, baseIndex, fileName, true);
+        Path raw = Paths.get(fileName);
+        Path compressed = Paths.get(fileName + COMPRESSED);
+        if (Files.exists(raw)) {
+            // compression was interrupted before switching to the compressed file
+            Files.deleteIfExists(compressed);
+            if (!segment.index.load(segment.checkpointPath(), Files.size(raw))) {
+                if (lines) segment.index.scanLines(raw, false);
+                else segment.index.scanRecords(raw);
+                try (FileChannel channel = FileChannel.open(raw, StandardOpenOption.WRITE)) {
+                    channel.truncate(segment.index.endOffset());
+                }
+                segment.saveIndex();
+            }
+        } else {
+            if (!segment.index.load(segment.checkpointPath(), -1)) {
+                throw new IOException("No checkpoint of compressed segment " + fileName);
+            }
+            segment.blocks = CompressedBlocks.open(compressed.toString(), segment.index, cache);
+        }
+        return segment;
+    }
+
+    /**
+     * Raw bytes of the records at positions from inclusive to exclusive of this segment.
+     *
+     * @param mapped read from memory mapped file segments instead of a file channel
+     */
+    AutoCloseableIterator<byte[]> records(int from, int to, boolean mapped) {
+        CompressedBlocks blocks = this.blocks;
+        if (blocks != null) return blocks.records(from, to);
+        if (from >= to) return emptyRecords();
+        if (mapped) {
+            MappedFile mappedFile = mappedFile();
+            // compressed meanwhile
+            if (mappedFile == null) return this.blocks.records(from, to);
+            return mappedRecords(mappedFile, from, to);
+        }
+        InputStream in;
+        try {
+            FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+            channel.position(index.get(from));
+            in = new BufferedInputStream(Channels.newInputStream(channel), 64 * 1_024);
+        } catch (IOException e) {
+            // the raw file is deleted right after the segment switches to its compressed blocks
+            blocks = this.blocks;
+            if (blocks != null) return blocks.records(from, to);
+            throw new RuntimeException("Error reading " + this + " from position " + from, e);
+        }
+        return new AutoCloseableIterator<byte[]>() {
+            private int next = from;
+
+            @Override
+            public boolean hasNext() {
+                return next < to;
+            }
+
+            @Override
+            public byte[] next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                try {
+                    long offset = index.get(next);
+                    byte[] bytes = new byte[(int) (index.end(next) - offset)];
+                    IOUtils.readFully(in, bytes);
+                    if (++next == to) close();
+                    return bytes;
+                } catch (IOException e) {
+                    throw new RuntimeException("Error reading " + Segment.this + " at position " + next, e);
+                }
+            }
+
+            @Override
+            public void close() {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    private AutoCloseableIterator<byte[]> mappedRecords(MappedFile mappedFile, int from, int to) {
+        return new AutoCloseableIterator<byte[]>() {
+            private int next = from;
+
+            @Override
+            public boolean hasNext() {
+                return next < to;
+            }
+
+            @Override
+            public byte[] next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                long offset = index.get(next);
+                byte[] bytes = mappedFile.read(offset, (int) (index.end(next) - offset));
+                next++;
+                return bytes;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    static AutoCloseableIterator<byte[]> emptyRecords() {
+        return new AutoCloseableIterator<byte[]>() {
+            @Override
+            public boolean hasNext() {
+                return false;
+            }
+
+            @Override
+            public byte[] next() {
+                throw new NoSuchElementException();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * @return null once the segment is compressed
+     */
+    private synchronized MappedFile mappedFile() {
+        if (blocks != null) return null;
+        if (mappedFile == null) mappedFile = new MappedFile(Paths.get(fileName));
+        return mappedFile;
+    }
+
+    synchronized long mappedBytes() {
+        return mappedFile == null ? 0 : mappedFile.mappedEnd();
+    }
+
+    synchronized void closeMapped() {
+        if (mappedFile != null) {
+            mappedFile.close();
+            mappedFile = null;
+        }
+    }
+
+    boolean isCompressed() {
+        return blocks != null;
+    }
+
+    /**
+     * Replaces the file of a sealed segment by its compressed blocks. Readers that already opened the raw file
+     * keep reading it.
+     */
+    void compress(int blockBytes, BlockCache cache) throws IOException {
+        if (!isSealed()) throw new IllegalStateException("Not sealed: " + this);
+        CompressedBlocks blocks = CompressedBlocks.compress(fileName, index, fileName + COMPRESSED, blockBytes, cache);
+        synchronized (this) {
+            if (deleted) {
+                blocks.delete();
+                return;
+            }
+            this.blocks = blocks;
+            closeMapped();
+        }
+        Files.deleteIfExists(Paths.get(fileName));
+    }
+
+    synchronized boolean isDeleted() {
+        return deleted;
+    }
+
+    void delete() throws IOException {
+        CompressedBlocks blocks;
+        synchronized (this) {
+            deleted = true;
+            blocks = this.blocks;
+            closeMapped();
+        }
+        if (blocks != null) blocks.delete();
+        Files.deleteIfExists(Paths.get(fileName));
+        Files.deleteIfExists(checkpointPath());
+    }
+
+    @Override
+    public String toString() {
+        return "Segment{" +
+                "file=" + fileName +
+                ", baseIndex=" + baseIndex +
+                ", size=" + (index == null ? "?" : index.size()) +
+                ", sealed=" + isSealed() +
+                ", compressed=" + isCompressed() +
+                '}';
+    }
+}
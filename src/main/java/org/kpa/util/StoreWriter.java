@@ -0,0 +1,56 @@
+package org.kpa.util;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of threads persisting appends of @{@link FileStoredList} stores. A store is scheduled only when it has
+ * pending appends and is written by one thread at a time, so appends to different stores are written in parallel
+ * and an idle store costs nothing.
+ *
+ * The default pool size is set by the org.kpa.util.storeWriterThreads system property.
+ */
+public class StoreWriter implements AutoCloseable {
+    private static final long KEEP_ALIVE_MILLIS = 5_000;
+    private static final StoreWriter DEFAULT = new StoreWriter("str_cache", Integer.getInteger(
+            "org.kpa.util.storeWriterThreads", Math.min(4, Runtime.getRuntime().availableProcessors())));
+    private final String name;
+    private final ThreadPoolExecutor executor;
+
+    public StoreWriter(String name, int threads) {
+        Preconditions.checkArgument(threads > 0, "Invalid threads: %s", threads);
+        this.name = name;
+        executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new DaemonNamedFactory(name, false));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static StoreWriter getDefault() {
+        return DEFAULT;
+    }
+
+    void schedule(Runnable flush) {
+        executor.execute(flush);
+    }
+
+    public int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "StoreWriter{" +
+                "name='" + name + '\'' +
+                ", threads=" + executor.getMaximumPoolSize() +
+                ", active=" + executor.getActiveCount() +
+                '}';
+    }
+}
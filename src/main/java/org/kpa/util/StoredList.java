@@ -6,6 +6,7 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Spliterator;
 
 public abstract class StoredList<T> implements List<T>, AutoCloseable {
 
@@ -92,6 +93,29 @@ public abstract class StoredList<T> implements List<T>, AutoCloseable {
 
     public abstract Iterator<T> iterator(int index);
 
+    /**
+     * @return index of the oldest record still held, earlier ones were dropped
+     */
+    public int getFirstIndex() {
+        return 0;
+    }
+
+    /**
+     * Splits by index ranges, each read through its own @{@link #iterator(int)}, so parallel streams read the
+     * store from several threads. Covers the items held when it's created.
+     */
+    @Override
+    public Spliterator<T> spliterator() {
+        return new StoredListSpliterator<>(this, getFirstIndex(), size());
+    }
+
+    /**
+     * @return index to split the range from inclusive to exclusive at, preferably near its middle
+     */
+    protected int splitIndex(int from, int to) {
+        return (from + to) >>> 1;
+    }
+
     @NotNull
     @Override
     public ListIterator<T> listIterator(int index) {
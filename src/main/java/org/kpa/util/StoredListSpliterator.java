@@ -0,0 +1,66 @@
+package org.kpa.util;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over the index range from inclusive to exclusive of a @{@link StoredList}. Splits at the index the
+ * list picks through @{@link StoredList#splitIndex}; every split reads its range through its own
+ * @{@link StoredList#iterator(int)}, opened on the first item taken.
+ */
+class StoredListSpliterator<T> implements Spliterator<T> {
+    private static final int MIN_SPLIT_SIZE = 1_024;
+    private final StoredList<T> list;
+    private int from;
+    private final int to;
+    private Iterator<T> records;
+
+    StoredListSpliterator(StoredList<T> list, int from, int to) {
+        this.list = list;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (from >= to) return false;
+        if (records == null) records = list.iterator(from);
+        if (!records.hasNext()) throw new NoSuchElementException("No item " + from + " in " + list);
+        action.accept(records.next());
+        if (++from == to) close();
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        while (from < to) tryAdvance(action);
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        // a split reading already can't give a prefix away
+        if (records != null || to - from < 2 * MIN_SPLIT_SIZE) return null;
+        int split = list.splitIndex(from, to);
+        if (split - from < MIN_SPLIT_SIZE || to - split < MIN_SPLIT_SIZE) split = (from + to) >>> 1;
+        StoredListSpliterator<T> prefix = new StoredListSpliterator<>(list, from, split);
+        from = split;
+        return prefix;
+    }
+
+    private void close() {
+        if (records instanceof AutoCloseableIterator) ((AutoCloseableIterator<T>) records).close();
+        records = null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return to - from;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED;
+    }
+}
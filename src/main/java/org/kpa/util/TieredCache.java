@@ -0,0 +1,96 @@
+package org.kpa.util;
+
+import com.google.common.base.Preconditions;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * Values by int key in tiers bounded by bytes: objects on heap, weighed by a weigher and bounded by count as well,
+ * then values serialized to an @{@link OffHeapLog}. The least recently used objects over the heap budget are demoted
+ * to the off-heap tier, and a hit there promotes the value back to heap. Values evicted from the last tier are left to the store they came from.
+ * Not thread safe.
+ */
+class TieredCache<T> {
+    private ToIntFunction<? super T> weigher;
+    private long heapBudget;
+    private IntLruCache<T> heap;
+    private long heapBytes = 0;
+    private OffHeapLog<T> offHeap;
+
+    /**
+     * @param weigher        estimated heap bytes of a value, must give the same weight every time for the same value
+     * @param maxHeapEntries values kept on heap whatever they weigh
+     */
+    TieredCache(ToIntFunction<? super T> weigher, long heapBudget, int maxHeapEntries) {
+        configure(weigher, heapBudget, maxHeapEntries, null, 0);
+    }
+
+    /**
+     * Replaces the tiers, dropping the values held.
+     *
+     * @param codec null for no off-heap tier
+     */
+    void configure(ToIntFunction<? super T> weigher, long heapBudget, int maxHeapEntries,
+                   RecordCodec<T> codec, int offHeapBudget) {
+        Preconditions.checkArgument(heapBudget > 0, "Invalid heapBudget: %s", heapBudget);
+        Preconditions.checkArgument(maxHeapEntries > 0, "Invalid maxHeapEntries: %s", maxHeapEntries);
+        this.weigher = Preconditions.checkNotNull(weigher, "weigher");
+        this.heapBudget = heapBudget;
+        heap = new IntLruCache<>(maxHeapEntries);
+        heapBytes = 0;
+        offHeap = codec == null ? null : new OffHeapLog<>(codec, offHeapBudget);
+    }
+
+    /**
+     * @return the value of the key, null if no tier holds it
+     */
+    T get(int key) {
+        T value = heap.get(key);
+        if (value != null || offHeap == null) return value;
+        value = offHeap.remove(key);
+        if (value != null) put(key, value);
+        return value;
+    }
+
+    /**
+     * A null value isn't cached.
+     */
+    void put(int key, T value) {
+        if (value == null) return;
+        T replaced = heap.remove(key);
+        if (replaced != null) heapBytes -= weigher.applyAsInt(replaced);
+        if (heap.size() == heap.capacity()) demoteEldest();
+        heap.put(key, value);
+        heapBytes += weigher.applyAsInt(value);
+        while (heapBytes > heapBudget) demoteEldest();
+    }
+
+    private void demoteEldest() {
+        int eldest = heap.eldestKey();
+        T demoted = heap.remove(eldest);
+        heapBytes -= weigher.applyAsInt(demoted);
+        if (offHeap != null) offHeap.put(eldest, demoted);
+    }
+
+    void clear() {
+        heap.clear();
+        heapBytes = 0;
+        if (offHeap != null) offHeap.clear();
+    }
+
+    int heapSize() {
+        return heap.size();
+    }
+
+    long heapBytes() {
+        return heapBytes;
+    }
+
+    int offHeapSize() {
+        return offHeap == null ? 0 : offHeap.size();
+    }
+
+    long offHeapBytes() {
+        return offHeap == null ? 0 : offHeap.bytes();
+    }
+}
@@ -0,0 +1,184 @@
+package org.kpa.util.queue;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Conflating queue with one preallocated slot per key and an int ring of slot indices as FIFO.
+ * Offering to a key that is already queued allocates nothing and doesn't take the lock.
+ */
+public class ArrayConflatingQueue<K, V> implements ConflatingQueue<K, V> {
+    private final Map<K, Slot<K, V>> slotByKey = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    // takeCoalesced waiters inside their window, kept apart so they never take the signal meant for a taker
+    private final Condition morePending = lock.newCondition();
+    private Slot<K, V>[] slots;
+    private int[] ring;
+    private int head = 0;
+    private int tail = 0;
+    private volatile int count = 0;
+
+    public ArrayConflatingQueue() {
+        this(1_024);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ArrayConflatingQueue(int initialKeysCapacity) {
+        if (initialKeysCapacity <= 0) throw new IllegalArgumentException("initialKeysCapacity: " + initialKeysCapacity);
+        slots = new Slot[initialKeysCapacity];
+        ring = new int[initialKeysCapacity];
+    }
+
+    static final class Slot<K, V> {
+        private static final AtomicReferenceFieldUpdater<Slot, KeyValue> VALUE =
+                AtomicReferenceFieldUpdater.newUpdater(Slot.class, KeyValue.class, "value");
+        final int index;
+        volatile KeyValue<K, V> value;
+
+        Slot(int index) {
+            this.index = index;
+        }
+
+        @SuppressWarnings("unchecked")
+        KeyValue<K, V> getAndSet(KeyValue<K, V> keyValue) {
+            return VALUE.getAndSet(this, keyValue);
+        }
+    }
+
+    @Override
+    public boolean offer(KeyValue<K, V> keyValue) {
+        if (keyValue == null) throw new NullPointerException("keyValue");
+        Slot<K, V> slot = slotByKey.get(keyValue.getKey());
+        if (slot == null) slot = register(keyValue.getKey());
+        if (slot.getAndSet(keyValue) == null) {
+            lock.lock();
+            try {
+                ring[tail] = slot.index;
+                tail = next(tail);
+                count++;
+                notEmpty.signal();
+                morePending.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+        return true;
+    }
+
+    private Slot<K, V> register(K key) {
+        lock.lock();
+        try {
+            Slot<K, V> slot = slotByKey.get(key);
+            if (slot == null) {
+                int index = slotByKey.size();
+                if (index == slots.length) grow();
+                slot = new Slot<>(index);
+                slots[index] = slot;
+                slotByKey.put(key, slot);
+            }
+            return slot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void grow() {
+        int capacity = slots.length * 2;
+        Slot<K, V>[] newSlots = new Slot[capacity];
+        System.arraycopy(slots, 0, newSlots, 0, slots.length);
+        int[] newRing = new int[capacity];
+        for (int i = 0; i < count; i++) {
+            newRing[i] = ring[(head + i) % ring.length];
+        }
+        slots = newSlots;
+        ring = newRing;
+        head = 0;
+        tail = count;
+    }
+
+    private int next(int pos) {
+        return ++pos == ring.length ? 0 : pos;
+    }
+
+    @Override
+    public KeyValue<K, V> take() throws InterruptedException {
+        Slot<K, V> slot;
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) notEmpty.await();
+            slot = slots[ring[head]];
+            head = next(head);
+            count--;
+        } finally {
+            lock.unlock();
+        }
+        return slot.getAndSet(null);
+    }
+
+    @Override
+    public int drainTo(Collection<? super KeyValue<K, V>> target, int max) {
+        if (target == null) throw new NullPointerException("target");
+        if (count == 0 || max <= 0) return 0;
+        lock.lock();
+        try {
+            return drainLocked(target, max);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int takeBatch(Collection<? super KeyValue<K, V>> target, int max) throws InterruptedException {
+        if (target == null) throw new NullPointerException("target");
+        if (max <= 0) throw new IllegalArgumentException("max: " + max);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) notEmpty.await();
+            return drainLocked(target, max);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int takeCoalesced(Collection<? super KeyValue<K, V>> target, int minKeys, long maxDelay, TimeUnit unit) throws InterruptedException {
+        if (target == null) throw new NullPointerException("target");
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) notEmpty.await();
+            long remaining = unit.toNanos(maxDelay);
+            try {
+                while (count < minKeys && remaining > 0) remaining = morePending.awaitNanos(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return drainLocked(target, Integer.MAX_VALUE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int drainLocked(Collection<? super KeyValue<K, V>> target, int max) {
+        int drained = 0;
+        while (drained < max && count > 0) {
+            Slot<K, V> slot = slots[ring[head]];
+            head = next(head);
+            count--;
+            target.add(slot.getAndSet(null));
+            drained++;
+        }
+        return drained;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return count == 0;
+    }
+}
@@ -0,0 +1,158 @@
+package org.kpa.util.queue;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Conflating queue holding at most maxKeys distinct pending keys, see @{@link OverflowPolicy}.
+ * Pending items are kept in an insertion ordered map, so a key keeps its position when its value is replaced.
+ */
+public class BoundedConflatingQueue<K, V> implements ConflatingQueue<K, V> {
+    private final int maxKeys;
+    private final OverflowPolicy overflowPolicy;
+    private final LinkedHashMap<K, KeyValue<K, V>> pending = new LinkedHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    // takeCoalesced waiters inside their window, kept apart so they never take the signal meant for a taker
+    private final Condition morePending = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicLong overflowCount = new AtomicLong();
+    private volatile int count = 0;
+
+    public BoundedConflatingQueue(int maxKeys, OverflowPolicy overflowPolicy) {
+        if (maxKeys <= 0) throw new IllegalArgumentException("maxKeys: " + maxKeys);
+        if (overflowPolicy == null) throw new NullPointerException("overflowPolicy");
+        this.maxKeys = maxKeys;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    @Override
+    public boolean offer(KeyValue<K, V> keyValue) {
+        if (keyValue == null) throw new NullPointerException("keyValue");
+        lock.lock();
+        try {
+            if (pending.replace(keyValue.getKey(), keyValue) != null) return true;
+            if (pending.size() >= maxKeys) overflowCount.incrementAndGet();
+            while (pending.size() >= maxKeys) {
+                switch (overflowPolicy) {
+                    case REJECT:
+                        return false;
+                    case DROP_OLDEST:
+                        Iterator<KeyValue<K, V>> oldest = pending.values().iterator();
+                        oldest.next();
+                        oldest.remove();
+                        break;
+                    case BLOCK:
+                        try {
+                            notFull.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return false;
+                        }
+                        if (pending.replace(keyValue.getKey(), keyValue) != null) return true;
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown overflow policy: " + overflowPolicy);
+                }
+            }
+            pending.put(keyValue.getKey(), keyValue);
+            count = pending.size();
+            notEmpty.signal();
+            morePending.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public KeyValue<K, V> take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (pending.isEmpty()) notEmpty.await();
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super KeyValue<K, V>> target, int max) {
+        if (target == null) throw new NullPointerException("target");
+        if (count == 0 || max <= 0) return 0;
+        lock.lock();
+        try {
+            return drainLocked(target, max);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int takeBatch(Collection<? super KeyValue<K, V>> target, int max) throws InterruptedException {
+        if (target == null) throw new NullPointerException("target");
+        if (max <= 0) throw new IllegalArgumentException("max: " + max);
+        lock.lockInterruptibly();
+        try {
+            while (pending.isEmpty()) notEmpty.await();
+            return drainLocked(target, max);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int takeCoalesced(Collection<? super KeyValue<K, V>> target, int minKeys, long maxDelay, TimeUnit unit) throws InterruptedException {
+        if (target == null) throw new NullPointerException("target");
+        lock.lockInterruptibly();
+        try {
+            while (pending.isEmpty()) notEmpty.await();
+            long remaining = unit.toNanos(maxDelay);
+            try {
+                while (pending.size() < Math.min(minKeys, maxKeys) && remaining > 0) {
+                    remaining = morePending.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return drainLocked(target, Integer.MAX_VALUE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int drainLocked(Collection<? super KeyValue<K, V>> target, int max) {
+        int drained = 0;
+        while (drained < max && !pending.isEmpty()) {
+            target.add(removeFirst());
+            drained++;
+        }
+        return drained;
+    }
+
+    private KeyValue<K, V> removeFirst() {
+        Iterator<KeyValue<K, V>> first = pending.values().iterator();
+        KeyValue<K, V> keyValue = first.next();
+        first.remove();
+        count = pending.size();
+        notFull.signal();
+        return keyValue;
+    }
+
+    /**
+     * @return how many times an offer of a new key found the queue full
+     */
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return count == 0;
+    }
+}
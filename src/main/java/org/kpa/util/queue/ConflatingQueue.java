@@ -1,5 +1,7 @@
 package org.kpa.util.queue;
 
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -55,6 +57,46 @@ public interface ConflatingQueue<K, V> {
 	 */
 	KeyValue<K, V> take() throws InterruptedException;
 
+	/**
+	 * Removes at most max first key value items from the conflating_queue and adds them to the given collection,
+	 * in the FIFO order of their keys. Does not block if the conflating_queue is empty.
+	 *
+	 * @param target the collection to add the removed key value items to
+	 * @param max the maximum number of key value items to remove
+	 * @return the number of key value items added to the target collection
+	 * @throws NullPointerException if target is null
+	 */
+	int drainTo(Collection<? super KeyValue<K, V>> target, int max);
+
+	/**
+	 * Removes at most max first key value items from the conflating_queue and adds them to the given collection,
+	 * blocking if the conflating_queue is empty until at least one key value item is available.
+	 *
+	 * @param target the collection to add the removed key value items to
+	 * @param max the maximum number of key value items to remove, must be positive
+	 * @return the number of key value items added to the target collection, at least 1
+	 * @throws InterruptedException if the thread was interrupted while waiting for a key value item to be added to the conflating_queue
+	 */
+	int takeBatch(Collection<? super KeyValue<K, V>> target, int max) throws InterruptedException;
+
+	/**
+	 * Removes all key value items from the conflating_queue and adds them to the given collection once at least minKeys
+	 * distinct keys are pending, or once maxDelay has passed since this call found the first pending key, whichever
+	 * comes first. Blocks if the conflating_queue is empty. Keys that are already pending keep being conflated while
+	 * waiting, so a consumer can trade a bounded extra latency for far fewer wake ups.
+	 *
+	 * If the thread is interrupted after the first key value item was found, the items found so far are returned and
+	 * the interrupt status is left set.
+	 *
+	 * @param target the collection to add the removed key value items to
+	 * @param minKeys the number of pending keys that ends the wait early
+	 * @param maxDelay the maximum time to wait for more keys after the first one
+	 * @param unit the time unit of maxDelay
+	 * @return the number of key value items added to the target collection, at least 1
+	 * @throws InterruptedException if the thread was interrupted while waiting for the first key value item
+	 */
+	int takeCoalesced(Collection<? super KeyValue<K, V>> target, int minKeys, long maxDelay, TimeUnit unit) throws InterruptedException;
+
 	/**
 	 * Checks whether the conflating_queue is currently empty
 	 *
@@ -1,14 +1,35 @@
 package org.kpa.util.queue;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BinaryOperator;
 
 public class ConflatingQueueImpl<K, V> implements ConflatingQueue<K, V> {
     private final BlockingQueue<K> keyQueue = new LinkedBlockingQueue<>();
     private final Map<K, AtomicReference<KeyValue<K, V>>> keyValRefByKey = new ConcurrentHashMap<>();
+    private final BinaryOperator<V> merge;
+    // keys taken off keyQueue by takeCoalesced calls still waiting out their window
+    private final AtomicInteger windowKeys = new AtomicInteger();
+
+    public ConflatingQueueImpl() {
+        this(null);
+    }
+
+    /**
+     * @param merge combines the queued value (first argument) with the offered one (second argument) while the key
+     *              waits in the queue; null means the offered value replaces the queued one
+     */
+    public ConflatingQueueImpl(BinaryOperator<V> merge) {
+        this.merge = merge;
+    }
 
     @Override
     public boolean offer(KeyValue<K, V> keyValue) {
@@ -16,10 +37,11 @@ public class ConflatingQueueImpl<K, V> implements ConflatingQueue<K, V> {
         AtomicReference<KeyValue<K, V>> keyValRefNew = new AtomicReference<>();
         keyValRefByKey.compute(keyValue.getKey(), (key, keyValRef) -> {
             KeyValue<K, V> oldKeyVal;
-            if (keyValRef == null || (oldKeyVal = keyValRef.get()) == null || !keyValRef.compareAndSet(oldKeyVal, keyValue)) {
+            if (keyValRef == null || (oldKeyVal = keyValRef.get()) == null
+                    || !keyValRef.compareAndSet(oldKeyVal, conflate(oldKeyVal, keyValue))) {
                 keyValRef = keyValRefNew;
+                keyValRef.set(keyValue);
             }
-            keyValRef.set(keyValue);
             return keyValRef;
         });
         if (keyValRefNew.get() != null) {
@@ -28,12 +50,92 @@ public class ConflatingQueueImpl<K, V> implements ConflatingQueue<K, V> {
         return true;
     }
 
+    private KeyValue<K, V> conflate(KeyValue<K, V> oldKeyVal, KeyValue<K, V> keyValue) {
+        if (merge == null) return keyValue;
+        return KeyValueImpl.of(keyValue.getKey(), merge.apply(oldKeyVal.getValue(), keyValue.getValue()));
+    }
+
     @Override
     public KeyValue<K, V> take() throws InterruptedException {
         AtomicReference<KeyValue<K, V>> keyValueRef;
         do {
             keyValueRef = keyValRefByKey.remove(keyQueue.take());
         } while (keyValueRef == null);
+        return takeValue(keyValueRef);
+    }
+
+    /**
+     * Keys are drained in one step, their values are then removed one by one. Each removal is atomic with offers of
+     * its key, so an offer racing the drain is either taken with the drained key or queues the key again.
+     */
+    @Override
+    public int drainTo(Collection<? super KeyValue<K, V>> target, int max) {
+        if (target == null) throw new NullPointerException("target");
+        List<K> keys = new ArrayList<>(Math.max(Math.min(max, keyQueue.size()), 0));
+        keyQueue.drainTo(keys, max);
+        return takeValues(keys, target);
+    }
+
+    @Override
+    public int takeBatch(Collection<? super KeyValue<K, V>> target, int max) throws InterruptedException {
+        if (target == null) throw new NullPointerException("target");
+        if (max <= 0) throw new IllegalArgumentException("max: " + max);
+        int count;
+        do {
+            List<K> keys = new ArrayList<>();
+            keys.add(keyQueue.take());
+            keyQueue.drainTo(keys, max - 1);
+            count = takeValues(keys, target);
+        } while (count == 0);
+        return count;
+    }
+
+    @Override
+    public int takeCoalesced(Collection<? super KeyValue<K, V>> target, int minKeys, long maxDelay, TimeUnit unit) throws InterruptedException {
+        if (target == null) throw new NullPointerException("target");
+        int count;
+        do {
+            // keys taken off keyQueue stay in keyValRefByKey, so offers keep conflating into them while we wait
+            List<K> keys = new ArrayList<>();
+            keys.add(keyQueue.take());
+            windowKeys.incrementAndGet();
+            int held = 1;
+            try {
+                long deadline = System.nanoTime() + unit.toNanos(maxDelay);
+                long remaining;
+                K key;
+                try {
+                    while (keys.size() < minKeys && (remaining = deadline - System.nanoTime()) > 0
+                            && (key = keyQueue.poll(remaining, TimeUnit.NANOSECONDS)) != null) {
+                        keys.add(key);
+                        windowKeys.incrementAndGet();
+                        held++;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                keyQueue.drainTo(keys);
+                count = takeValues(keys, target);
+            } finally {
+                windowKeys.addAndGet(-held);
+            }
+        } while (count == 0);
+        return count;
+    }
+
+    private int takeValues(List<K> keys, Collection<? super KeyValue<K, V>> target) {
+        int count = 0;
+        for (K key : keys) {
+            AtomicReference<KeyValue<K, V>> keyValueRef = keyValRefByKey.remove(key);
+            if (keyValueRef != null) {
+                target.add(takeValue(keyValueRef));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private KeyValue<K, V> takeValue(AtomicReference<KeyValue<K, V>> keyValueRef) {
         KeyValue<K, V> keyValue;
         do {
             keyValue = keyValueRef.get();
@@ -41,8 +143,11 @@ public class ConflatingQueueImpl<K, V> implements ConflatingQueue<K, V> {
         return keyValue;
     }
 
+    /**
+     * Keys held by a takeCoalesced call waiting out its window are still pending, they're only reserved for it.
+     */
     @Override
     public boolean isEmpty() {
-        return keyQueue.isEmpty();
+        return keyQueue.isEmpty() && windowKeys.get() == 0;
     }
 }
@@ -0,0 +1,227 @@
+package org.kpa.util.queue;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Publish once, consume many: every @{@link Subscription} is an independent conflated FIFO-by-key view of the
+ * published items, consumed at its own pace. The latest item per key is stored once and shared by all
+ * subscriptions; a subscription only holds a bit per key telling whether the key is queued for it, plus the FIFO of
+ * its queued keys. A slow subscription therefore never slows down the publisher or the other subscriptions.
+ *
+ * A new subscription starts with all keys published so far queued.
+ */
+public class ConflatingTopic<K, V> {
+    public static final int MAX_SUBSCRIPTIONS = Long.SIZE;
+    private final Map<K, KeyState<K, V>> stateByKey = new ConcurrentHashMap<>();
+    @SuppressWarnings("unchecked")
+    private final Subscription[] subscriptions = new ConflatingTopic.Subscription[MAX_SUBSCRIPTIONS];
+    private volatile long activeMask = 0;
+
+    static final class KeyState<K, V> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicLongFieldUpdater<KeyState> QUEUED =
+                AtomicLongFieldUpdater.newUpdater(KeyState.class, "queuedMask");
+        volatile KeyValue<K, V> value;
+        volatile long queuedMask;
+
+        /**
+         * @return the bits of mask that were not set before
+         */
+        @SuppressWarnings("unchecked")
+        long setBits(long mask) {
+            long old;
+            do {
+                old = queuedMask;
+            } while ((old & mask) != mask && !QUEUED.compareAndSet(this, old, old | mask));
+            return mask & ~old;
+        }
+
+        @SuppressWarnings("unchecked")
+        void clearBits(long mask) {
+            long old;
+            do {
+                old = queuedMask;
+            } while ((old & mask) != 0 && !QUEUED.compareAndSet(this, old, old & ~mask));
+        }
+    }
+
+    /**
+     * Stores the item as the latest one of its key and queues the key for every subscription it isn't queued for yet.
+     *
+     * @return true
+     * @throws NullPointerException if keyValue is null
+     */
+    public boolean publish(KeyValue<K, V> keyValue) {
+        if (keyValue == null) throw new NullPointerException("keyValue");
+        KeyState<K, V> state = stateByKey.get(keyValue.getKey());
+        if (state == null) state = stateByKey.computeIfAbsent(keyValue.getKey(), key -> new KeyState<>());
+        state.value = keyValue;
+        long newlyQueued = state.setBits(activeMask);
+        while (newlyQueued != 0) {
+            int index = Long.numberOfTrailingZeros(newlyQueued);
+            newlyQueued &= newlyQueued - 1;
+            Subscription subscription = subscriptions[index];
+            if (subscription != null) subscription.enqueue(state);
+        }
+        return true;
+    }
+
+    /**
+     * @throws IllegalStateException if there are already @{@link #MAX_SUBSCRIPTIONS} subscriptions
+     */
+    public synchronized Subscription subscribe() {
+        for (int index = 0; index < MAX_SUBSCRIPTIONS; index++) {
+            if (subscriptions[index] == null) {
+                Subscription subscription = new Subscription(index);
+                subscriptions[index] = subscription;
+                activeMask |= subscription.bit;
+                // bits left over from a closed subscription with the same index are overwritten here, duplicates
+                // queued by a concurrent publish are skipped by take()
+                for (KeyState<K, V> state : stateByKey.values()) {
+                    state.setBits(subscription.bit);
+                    subscription.enqueue(state);
+                }
+                return subscription;
+            }
+        }
+        throw new IllegalStateException("Too many subscriptions: " + MAX_SUBSCRIPTIONS);
+    }
+
+    private synchronized void unsubscribe(Subscription subscription) {
+        if (subscriptions[subscription.index] != subscription) return;
+        activeMask &= ~subscription.bit;
+        subscriptions[subscription.index] = null;
+        for (KeyState<K, V> state : stateByKey.values()) {
+            state.clearBits(subscription.bit);
+        }
+    }
+
+    public synchronized int getSubscriptionsCount() {
+        return Long.bitCount(activeMask);
+    }
+
+    public class Subscription implements AutoCloseable {
+        private final int index;
+        private final long bit;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private Object[] ring = new Object[16];
+        private int head = 0;
+        private int tail = 0;
+        private volatile int count = 0;
+
+        private Subscription(int index) {
+            this.index = index;
+            this.bit = 1L << index;
+        }
+
+        private void enqueue(KeyState<K, V> state) {
+            lock.lock();
+            try {
+                if (count == ring.length) grow();
+                ring[tail] = state;
+                tail = next(tail);
+                count++;
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void grow() {
+            Object[] newRing = new Object[ring.length * 2];
+            for (int i = 0; i < count; i++) {
+                newRing[i] = ring[(head + i) % ring.length];
+            }
+            ring = newRing;
+            head = 0;
+            tail = count;
+        }
+
+        private int next(int pos) {
+            return ++pos == ring.length ? 0 : pos;
+        }
+
+        @SuppressWarnings("unchecked")
+        private KeyState<K, V> poll() {
+            KeyState<K, V> state = (KeyState<K, V>) ring[head];
+            ring[head] = null;
+            head = next(head);
+            count--;
+            return state;
+        }
+
+        /**
+         * @return the latest item of the state, null if the state was a duplicate entry not queued for this subscription
+         */
+        private KeyValue<K, V> takeValue(KeyState<K, V> state) {
+            if ((state.queuedMask & bit) == 0) return null;
+            KeyValue<K, V> keyValue = state.value;
+            state.clearBits(bit);
+            // a publish that happened after our read saw the bit set and didn't queue the key again
+            if (state.value != keyValue && state.setBits(bit) != 0) enqueue(state);
+            return keyValue;
+        }
+
+        /**
+         * Removes the first key value item of this subscription, blocking if it is empty.
+         *
+         * @throws InterruptedException if the thread was interrupted while waiting
+         */
+        public KeyValue<K, V> take() throws InterruptedException {
+            KeyValue<K, V> keyValue;
+            do {
+                KeyState<K, V> state;
+                lock.lockInterruptibly();
+                try {
+                    while (count == 0) notEmpty.await();
+                    state = poll();
+                } finally {
+                    lock.unlock();
+                }
+                keyValue = takeValue(state);
+            } while (keyValue == null);
+            return keyValue;
+        }
+
+        /**
+         * Removes at most max first key value items of this subscription without blocking.
+         *
+         * @return the number of items added to target
+         */
+        public int drainTo(Collection<? super KeyValue<K, V>> target, int max) {
+            if (target == null) throw new NullPointerException("target");
+            int drained = 0;
+            while (drained < max && count > 0) {
+                KeyState<K, V> state;
+                lock.lock();
+                try {
+                    if (count == 0) break;
+                    state = poll();
+                } finally {
+                    lock.unlock();
+                }
+                KeyValue<K, V> keyValue = takeValue(state);
+                if (keyValue != null) {
+                    target.add(keyValue);
+                    drained++;
+                }
+            }
+            return drained;
+        }
+
+        public boolean isEmpty() {
+            return count == 0;
+        }
+
+        @Override
+        public void close() {
+            unsubscribe(this);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.kpa.util.queue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Caller owned flyweight over a fixed size record, used to write records into and read them out of
+ * an @{@link OffHeapConflatingQueue} without allocation. Subclasses typically add named accessors
+ * on top of the offset based ones, e.g. price() = getDouble(0).
+ */
+public class FixedRecord {
+    final ByteBuffer buffer;
+
+    public FixedRecord(int size) {
+        if (size <= 0 || size % Long.BYTES != 0) throw new IllegalArgumentException("Size must be a positive multiple of 8: " + size);
+        buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+    }
+
+    public int size() {
+        return buffer.capacity();
+    }
+
+    public long getLong(int offset) {
+        return buffer.getLong(offset);
+    }
+
+    public FixedRecord putLong(int offset, long value) {
+        buffer.putLong(offset, value);
+        return this;
+    }
+
+    public double getDouble(int offset) {
+        return buffer.getDouble(offset);
+    }
+
+    public FixedRecord putDouble(int offset, double value) {
+        buffer.putDouble(offset, value);
+        return this;
+    }
+
+    public int getInt(int offset) {
+        return buffer.getInt(offset);
+    }
+
+    public FixedRecord putInt(int offset, int value) {
+        buffer.putInt(offset, value);
+        return this;
+    }
+}
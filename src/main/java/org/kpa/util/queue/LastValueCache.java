@@ -0,0 +1,170 @@
+package org.kpa.util.queue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+
+/**
+ * Latest value per key with a per-key version number, readable at any time without locking.
+ * Feed it through @{@link #feeding(ConflatingQueue)} so that the producer's single offer() call updates both the
+ * cache and the queue, queue consumers still take() as usual while other components read the cache.
+ *
+ * Offers of the same key through the feeding queue are serialized, so the cache and the queue see them in the same
+ * order: once producers stop, the cached value of a key still queued is the queued value. Only offers the queue
+ * accepts update the cache. A queue merging values must be fed by a cache built with the same merge function, the
+ * cache then merges every update into the cached value while the queue merges the ones since the last take.
+ */
+public class LastValueCache<K, V> {
+    private static final int LOCK_STRIPES = 64;
+    private final Map<K, Entry<K, V>> entryByKey = new ConcurrentHashMap<>();
+    private final BinaryOperator<V> merge;
+    private final Object[] offerLocks = new Object[LOCK_STRIPES];
+
+    public LastValueCache() {
+        this(null);
+    }
+
+    /**
+     * @param merge combines the cached value (first argument) with the updated one (second argument); null means
+     *              the updated value replaces the cached one
+     */
+    public LastValueCache(BinaryOperator<V> merge) {
+        this.merge = merge;
+        for (int i = 0; i < offerLocks.length; i++) offerLocks[i] = new Object();
+    }
+
+    public static final class Entry<K, V> implements KeyValue<K, V> {
+        private final K key;
+        private final V value;
+        private final long version;
+
+        private Entry(K key, V value, long version) {
+            this.key = key;
+            this.value = value;
+            this.version = version;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        /**
+         * @return 1 for the first value of the key, incremented by every update
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "key=" + key +
+                    ", value=" + value +
+                    ", version=" + version +
+                    '}';
+        }
+    }
+
+    public Entry<K, V> update(KeyValue<K, V> keyValue) {
+        if (keyValue == null) throw new NullPointerException("keyValue");
+        return entryByKey.compute(keyValue.getKey(), (key, entry) -> entry == null
+                ? new Entry<>(key, keyValue.getValue(), 1)
+                : new Entry<>(key, merge == null ? keyValue.getValue() : merge.apply(entry.value, keyValue.getValue()),
+                entry.version + 1));
+    }
+
+    private Object offerLock(K key) {
+        int hash = key.hashCode();
+        return offerLocks[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * @return the latest entry of the key, null if the key was never updated
+     */
+    public Entry<K, V> getEntry(K key) {
+        return entryByKey.get(key);
+    }
+
+    public V get(K key) {
+        Entry<K, V> entry = entryByKey.get(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * @return the version of the latest value of the key, 0 if the key was never updated
+     */
+    public long getVersion(K key) {
+        Entry<K, V> entry = entryByKey.get(key);
+        return entry == null ? 0 : entry.version;
+    }
+
+    public int size() {
+        return entryByKey.size();
+    }
+
+    /**
+     * Iterates over the latest entries without blocking writers. Each entry is consistent, the iteration as a whole
+     * reflects updates made while it runs or not.
+     */
+    public void forEach(Consumer<? super Entry<K, V>> consumer) {
+        entryByKey.values().forEach(consumer);
+    }
+
+    public List<Entry<K, V>> snapshot() {
+        return new ArrayList<>(entryByKey.values());
+    }
+
+    /**
+     * @return a conflating queue that passes every offer on to the queue and updates this cache if the queue accepts
+     * it, offers of keys sharing a lock stripe wait for each other, a blocking offer included
+     */
+    public ConflatingQueue<K, V> feeding(ConflatingQueue<K, V> queue) {
+        return new ConflatingQueue<K, V>() {
+            @Override
+            public boolean offer(KeyValue<K, V> keyValue) {
+                if (keyValue == null) throw new NullPointerException("keyValue");
+                synchronized (offerLock(keyValue.getKey())) {
+                    if (!queue.offer(keyValue)) return false;
+                    update(keyValue);
+                    return true;
+                }
+            }
+
+            @Override
+            public KeyValue<K, V> take() throws InterruptedException {
+                return queue.take();
+            }
+
+            @Override
+            public int drainTo(Collection<? super KeyValue<K, V>> target, int max) {
+                return queue.drainTo(target, max);
+            }
+
+            @Override
+            public int takeBatch(Collection<? super KeyValue<K, V>> target, int max) throws InterruptedException {
+                return queue.takeBatch(target, max);
+            }
+
+            @Override
+            public int takeCoalesced(Collection<? super KeyValue<K, V>> target, int minKeys, long maxDelay, TimeUnit unit) throws InterruptedException {
+                return queue.takeCoalesced(target, minKeys, maxDelay, unit);
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return queue.isEmpty();
+            }
+        };
+    }
+}
@@ -0,0 +1,160 @@
+package org.kpa.util.queue;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Conflating queue keyed by primitive long ids, see @{@link ConflatingQueue} for the semantics.
+ * Keys are resolved to slots through an open-addressing long to int map, so neither offer nor take box keys
+ * or allocate wrappers once a key has been seen. Slots are never released: the key space is expected to be
+ * a bounded set of interned ids.
+ */
+public class LongConflatingQueue<V> {
+    private static final int NO_SLOT = -1;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private long[] tableKeys;
+    private int[] tableSlots;
+    private int tableMask;
+    private long[] slotKeys;
+    private Object[] slotValues;
+    private int[] ring;
+    private int slotsCount = 0;
+    private int head = 0;
+    private int tail = 0;
+    private volatile int count = 0;
+
+    public LongConflatingQueue() {
+        this(1_024);
+    }
+
+    public LongConflatingQueue(int initialKeysCapacity) {
+        if (initialKeysCapacity <= 0) throw new IllegalArgumentException("initialKeysCapacity: " + initialKeysCapacity);
+        slotKeys = new long[initialKeysCapacity];
+        slotValues = new Object[initialKeysCapacity];
+        ring = new int[initialKeysCapacity];
+        initTable(tableSizeFor(initialKeysCapacity));
+    }
+
+    /**
+     * Adds a key value item to the queue, replacing the queued value in place if the key is already queued.
+     *
+     * @return true, the queue is unbounded
+     * @throws NullPointerException if value is null
+     */
+    public boolean offer(long key, V value) {
+        if (value == null) throw new NullPointerException("value");
+        lock.lock();
+        try {
+            int slot = slotOf(key);
+            if (slot == NO_SLOT) slot = register(key);
+            if (slotValues[slot] == null) {
+                ring[tail] = slot;
+                tail = next(tail);
+                count++;
+                notEmpty.signal();
+            }
+            slotValues[slot] = value;
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Removes the first key value item in the queue and passes it to the consumer, blocking if the queue is empty.
+     * The consumer is called outside of the queue lock.
+     *
+     * @throws InterruptedException if the thread was interrupted while waiting for a key value item
+     */
+    @SuppressWarnings("unchecked")
+    public void take(LongValueConsumer<? super V> consumer) throws InterruptedException {
+        long key;
+        V value;
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) notEmpty.await();
+            int slot = ring[head];
+            head = next(head);
+            count--;
+            key = slotKeys[slot];
+            value = (V) slotValues[slot];
+            slotValues[slot] = null;
+        } finally {
+            lock.unlock();
+        }
+        consumer.accept(key, value);
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    private int slotOf(long key) {
+        for (int pos = hash(key) & tableMask; ; pos = (pos + 1) & tableMask) {
+            int slot = tableSlots[pos];
+            if (slot == NO_SLOT || tableKeys[pos] == key) return slot;
+        }
+    }
+
+    private int register(long key) {
+        if (slotsCount == slotKeys.length) growSlots();
+        if ((slotsCount + 1) * 2 > tableSlots.length) rehash(tableSlots.length * 2);
+        int slot = slotsCount++;
+        slotKeys[slot] = key;
+        putTable(key, slot);
+        return slot;
+    }
+
+    private void putTable(long key, int slot) {
+        int pos = hash(key) & tableMask;
+        while (tableSlots[pos] != NO_SLOT) pos = (pos + 1) & tableMask;
+        tableKeys[pos] = key;
+        tableSlots[pos] = slot;
+    }
+
+    private void growSlots() {
+        int capacity = slotKeys.length * 2;
+        long[] newSlotKeys = new long[capacity];
+        System.arraycopy(slotKeys, 0, newSlotKeys, 0, slotsCount);
+        Object[] newSlotValues = new Object[capacity];
+        System.arraycopy(slotValues, 0, newSlotValues, 0, slotsCount);
+        int[] newRing = new int[capacity];
+        for (int i = 0; i < count; i++) {
+            newRing[i] = ring[(head + i) % ring.length];
+        }
+        slotKeys = newSlotKeys;
+        slotValues = newSlotValues;
+        ring = newRing;
+        head = 0;
+        tail = count;
+    }
+
+    private void rehash(int tableSize) {
+        initTable(tableSize);
+        for (int slot = 0; slot < slotsCount; slot++) {
+            putTable(slotKeys[slot], slot);
+        }
+    }
+
+    private void initTable(int tableSize) {
+        tableKeys = new long[tableSize];
+        tableSlots = new int[tableSize];
+        Arrays.fill(tableSlots, NO_SLOT);
+        tableMask = tableSize - 1;
+    }
+
+    private int next(int pos) {
+        return ++pos == ring.length ? 0 : pos;
+    }
+
+    private static int tableSizeFor(int keysCapacity) {
+        return Integer.highestOneBit(Math.max(keysCapacity, 2) * 2 - 1) * 2;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,14 @@
+package org.kpa.util.queue;
+
+@FunctionalInterface
+public interface LongValueConsumer<V> {
+
+	/**
+	 * Accepts a key value item taken from a @{@link LongConflatingQueue}
+	 *
+	 * @param key the key
+	 * @param value the value
+	 */
+	void accept(long key, V value);
+
+}
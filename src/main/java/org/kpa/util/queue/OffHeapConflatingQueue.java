@@ -0,0 +1,172 @@
+package org.kpa.util.queue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Conflating queue of fixed size records keyed by long ids, see @{@link ConflatingQueue} for the semantics.
+ * Every key owns a slot of recordSize bytes in one direct @{@link ByteBuffer}. Producers copy a
+ * @{@link FixedRecord} into the slot under a per-slot seqlock, the consumer copies a consistent snapshot of the
+ * slot into its own @{@link FixedRecord}, so no objects are created per update. The FIFO is a ring of slot indices.
+ *
+ * The number of keys is fixed at construction.
+ */
+public class OffHeapConflatingQueue {
+    private static final int NO_SLOT = -1;
+    private final int recordSize;
+    private final int maxKeys;
+    private final ByteBuffer records;
+    private final AtomicLongArray sequences;
+    private final AtomicIntegerArray queued;
+    private final long[] slotKeys;
+    private final long[] tableKeys;
+    private final AtomicIntegerArray tableSlots;
+    private final int tableMask;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final int[] ring;
+    private int slotsCount = 0;
+    private int head = 0;
+    private int tail = 0;
+    private volatile int count = 0;
+
+    public OffHeapConflatingQueue(int recordSize, int maxKeys) {
+        if (recordSize <= 0 || recordSize % Long.BYTES != 0) throw new IllegalArgumentException("recordSize must be a positive multiple of 8: " + recordSize);
+        if (maxKeys <= 0) throw new IllegalArgumentException("maxKeys: " + maxKeys);
+        this.recordSize = recordSize;
+        this.maxKeys = maxKeys;
+        records = ByteBuffer.allocateDirect(Math.multiplyExact(recordSize, maxKeys)).order(ByteOrder.nativeOrder());
+        sequences = new AtomicLongArray(maxKeys);
+        queued = new AtomicIntegerArray(maxKeys);
+        slotKeys = new long[maxKeys];
+        ring = new int[maxKeys];
+        int tableSize = Integer.highestOneBit(Math.max(maxKeys, 2) * 2 - 1) * 2;
+        tableKeys = new long[tableSize];
+        tableSlots = new AtomicIntegerArray(tableSize);
+        for (int i = 0; i < tableSize; i++) tableSlots.set(i, NO_SLOT);
+        tableMask = tableSize - 1;
+    }
+
+    public int getRecordSize() {
+        return recordSize;
+    }
+
+    /**
+     * Copies the record into the slot of the key and queues the key unless it is already queued.
+     *
+     * @return true, the queue doesn't reject records
+     * @throws IllegalStateException if the key is new and maxKeys keys are already known
+     */
+    public boolean offer(long key, FixedRecord record) {
+        if (record.size() != recordSize) throw new IllegalArgumentException("Record size " + record.size() + " != " + recordSize);
+        int slot = slotOf(key);
+        if (slot == NO_SLOT) slot = register(key);
+        long seq;
+        while (((seq = sequences.get(slot)) & 1) != 0 || !sequences.compareAndSet(slot, seq, seq + 1)) {
+            Thread.yield();
+        }
+        int base = slot * recordSize;
+        for (int offset = 0; offset < recordSize; offset += Long.BYTES) {
+            records.putLong(base + offset, record.buffer.getLong(offset));
+        }
+        sequences.set(slot, seq + 2);
+        if (queued.compareAndSet(slot, 0, 1)) enqueue(slot);
+        return true;
+    }
+
+    /**
+     * Removes the first key in the queue, blocking if the queue is empty, and copies its latest record into the
+     * given record.
+     *
+     * @return the key
+     * @throws InterruptedException if the thread was interrupted while waiting for a key
+     */
+    public long take(FixedRecord into) throws InterruptedException {
+        if (into.size() != recordSize) throw new IllegalArgumentException("Record size " + into.size() + " != " + recordSize);
+        int slot;
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) notEmpty.await();
+            slot = ring[head];
+            head = next(head);
+            count--;
+        } finally {
+            lock.unlock();
+        }
+        long seq = read(slot, into);
+        queued.set(slot, 0);
+        // an offer that completed after our read saw the slot queued and didn't queue it again
+        if (sequences.get(slot) != seq && queued.compareAndSet(slot, 0, 1)) enqueue(slot);
+        return slotKeys[slot];
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    private long read(int slot, FixedRecord into) {
+        int base = slot * recordSize;
+        while (true) {
+            long seq = sequences.get(slot);
+            if ((seq & 1) == 0) {
+                for (int offset = 0; offset < recordSize; offset += Long.BYTES) {
+                    into.buffer.putLong(offset, records.getLong(base + offset));
+                }
+                // CAS is a full fence: the copy above can't be reordered after the validation
+                if (sequences.compareAndSet(slot, seq, seq)) return seq;
+            }
+            Thread.yield();
+        }
+    }
+
+    private void enqueue(int slot) {
+        lock.lock();
+        try {
+            ring[tail] = slot;
+            tail = next(tail);
+            count++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int slotOf(long key) {
+        for (int pos = hash(key) & tableMask; ; pos = (pos + 1) & tableMask) {
+            int slot = tableSlots.get(pos);
+            if (slot == NO_SLOT || tableKeys[pos] == key) return slot;
+        }
+    }
+
+    private int register(long key) {
+        lock.lock();
+        try {
+            int slot = slotOf(key);
+            if (slot != NO_SLOT) return slot;
+            if (slotsCount == maxKeys) throw new IllegalStateException("Too many keys, maxKeys=" + maxKeys + ", key=" + key);
+            slot = slotsCount++;
+            slotKeys[slot] = key;
+            int pos = hash(key) & tableMask;
+            while (tableSlots.get(pos) != NO_SLOT) pos = (pos + 1) & tableMask;
+            tableKeys[pos] = key;
+            // volatile write publishes tableKeys[pos] and slotKeys[slot] to lock free readers
+            tableSlots.set(pos, slot);
+            return slot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int next(int pos) {
+        return ++pos == ring.length ? 0 : pos;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,20 @@
+package org.kpa.util.queue;
+
+/**
+ * What a bounded queue does when a new key is offered while the maximum number of distinct keys is pending.
+ * Offers of keys that are already pending are conflated and never overflow.
+ */
+public enum OverflowPolicy {
+	/**
+	 * The producer blocks until a consumer takes a key.
+	 */
+	BLOCK,
+	/**
+	 * The offer is rejected, offer() returns false.
+	 */
+	REJECT,
+	/**
+	 * The oldest pending key is dropped to make room for the new one.
+	 */
+	DROP_OLDEST
+}
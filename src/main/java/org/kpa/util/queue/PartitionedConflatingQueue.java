@@ -0,0 +1,85 @@
+package org.kpa.util.queue;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Conflating queue split into a fixed number of partitions by key hash. Every key always lands in the same
+ * partition, so a consumer dedicated to a partition sees the updates of its keys in order, while the keys are
+ * spread over as many consumers as there are partitions.
+ */
+public class PartitionedConflatingQueue<K, V> {
+    private final ConflatingQueue<K, V>[] partitions;
+
+    public PartitionedConflatingQueue(int partitionsCount) {
+        this(partitionsCount, ArrayConflatingQueue::new);
+    }
+
+    @SuppressWarnings("unchecked")
+    public PartitionedConflatingQueue(int partitionsCount, Supplier<ConflatingQueue<K, V>> partitionFactory) {
+        if (partitionsCount <= 0) throw new IllegalArgumentException("partitionsCount: " + partitionsCount);
+        partitions = new ConflatingQueue[partitionsCount];
+        for (int i = 0; i < partitionsCount; i++) {
+            partitions[i] = partitionFactory.get();
+        }
+    }
+
+    public int getPartitionsCount() {
+        return partitions.length;
+    }
+
+    public int partitionOf(K key) {
+        int h = key.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), partitions.length);
+    }
+
+    /**
+     * Adds a key value item to the partition of its key, see @{@link ConflatingQueue#offer(KeyValue)}.
+     */
+    public boolean offer(KeyValue<K, V> keyValue) {
+        if (keyValue == null) throw new NullPointerException("keyValue");
+        return partitions[partitionOf(keyValue.getKey())].offer(keyValue);
+    }
+
+    /**
+     * Removes the first key value item of the partition, blocking if the partition is empty.
+     */
+    public KeyValue<K, V> take(int partition) throws InterruptedException {
+        return partition(partition).take();
+    }
+
+    public int drainTo(int partition, Collection<? super KeyValue<K, V>> target, int max) {
+        return partition(partition).drainTo(target, max);
+    }
+
+    public int takeBatch(int partition, Collection<? super KeyValue<K, V>> target, int max) throws InterruptedException {
+        return partition(partition).takeBatch(target, max);
+    }
+
+    public int takeCoalesced(int partition, Collection<? super KeyValue<K, V>> target, int minKeys,
+                             long maxDelay, TimeUnit unit) throws InterruptedException {
+        return partition(partition).takeCoalesced(target, minKeys, maxDelay, unit);
+    }
+
+    public boolean isEmpty(int partition) {
+        return partition(partition).isEmpty();
+    }
+
+    public boolean isEmpty() {
+        for (ConflatingQueue<K, V> partition : partitions) {
+            if (!partition.isEmpty()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the partition as a plain @{@link ConflatingQueue}, e.g. to hand it to a consumer
+     */
+    public ConflatingQueue<K, V> partition(int partition) {
+        if (partition < 0 || partition >= partitions.length) {
+            throw new IndexOutOfBoundsException("Partition: " + partition + ", partitions: " + partitions.length);
+        }
+        return partitions[partition];
+    }
+}
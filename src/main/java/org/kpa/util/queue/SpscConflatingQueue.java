@@ -0,0 +1,206 @@
+package org.kpa.util.queue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single producer / single consumer conflating queue. Each key owns a preallocated slot, queued slots are linked
+ * into an intrusive lock-free list (Vyukov's node-based queue with a stub node), so neither offer nor take
+ * allocates once a key has been seen. An empty queue is waited on according to the @{@link WaitStrategy}.
+ *
+ * offer() must always be called from the same thread, as must take(), takeBatch() and drainTo().
+ */
+public class SpscConflatingQueue<K, V> implements ConflatingQueue<K, V> {
+    private static final int SPINS = 1_000;
+    private static final int YIELDS = 100;
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<SpscConflatingQueue, Slot> LAST =
+            AtomicReferenceFieldUpdater.newUpdater(SpscConflatingQueue.class, Slot.class, "last");
+    private final WaitStrategy waitStrategy;
+    private final Map<K, Slot<K, V>> slotByKey = new HashMap<>();
+    private final Slot<K, V> stub = new Slot<>();
+    private volatile Slot<K, V> first = stub;
+    private volatile Slot<K, V> last = stub;
+    private volatile Thread waiter;
+    @SuppressWarnings("unchecked")
+    private Slot<K, V>[] held = new Slot[16];
+    // slots held by takeCoalesced until the end of its window, they're still pending meanwhile
+    private volatile int heldCount = 0;
+
+    public SpscConflatingQueue() {
+        this(WaitStrategy.BLOCKING);
+    }
+
+    public SpscConflatingQueue(WaitStrategy waitStrategy) {
+        if (waitStrategy == null) throw new NullPointerException("waitStrategy");
+        this.waitStrategy = waitStrategy;
+    }
+
+    static final class Slot<K, V> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Slot, KeyValue> VALUE =
+                AtomicReferenceFieldUpdater.newUpdater(Slot.class, KeyValue.class, "value");
+        volatile KeyValue<K, V> value;
+        volatile Slot<K, V> next;
+
+        @SuppressWarnings("unchecked")
+        KeyValue<K, V> getAndSet(KeyValue<K, V> keyValue) {
+            return VALUE.getAndSet(this, keyValue);
+        }
+    }
+
+    @Override
+    public boolean offer(KeyValue<K, V> keyValue) {
+        if (keyValue == null) throw new NullPointerException("keyValue");
+        Slot<K, V> slot = slotByKey.get(keyValue.getKey());
+        if (slot == null) {
+            slot = new Slot<>();
+            slotByKey.put(keyValue.getKey(), slot);
+        }
+        if (slot.getAndSet(keyValue) == null) {
+            push(slot);
+            Thread waiter = this.waiter;
+            if (waiter != null) LockSupport.unpark(waiter);
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void push(Slot<K, V> slot) {
+        slot.next = null;
+        Slot<K, V> prev = LAST.getAndSet(this, slot);
+        prev.next = slot;
+    }
+
+    private Slot<K, V> poll() {
+        Slot<K, V> first = this.first;
+        Slot<K, V> next = first.next;
+        if (first == stub) {
+            if (next == null) return null;
+            this.first = next;
+            first = next;
+            next = next.next;
+        }
+        if (next != null) {
+            this.first = next;
+            return first;
+        }
+        if (first != last) return null;
+        push(stub);
+        next = first.next;
+        if (next != null) {
+            this.first = next;
+            return first;
+        }
+        return null;
+    }
+
+    private Slot<K, V> await() throws InterruptedException {
+        Slot<K, V> slot;
+        int idleCount = 0;
+        while ((slot = poll()) == null) {
+            if (Thread.interrupted()) throw new InterruptedException();
+            idle(++idleCount, -1);
+        }
+        return slot;
+    }
+
+    /**
+     * @param parkNanos how long the consumer may park, negative to park until unparked by the producer
+     */
+    private void idle(int idleCount, long parkNanos) {
+        switch (waitStrategy) {
+            case BUSY_SPIN:
+                break;
+            case YIELDING:
+                Thread.yield();
+                break;
+            case SPIN_THEN_PARK:
+                if (idleCount < SPINS) break;
+                if (idleCount < SPINS + YIELDS) {
+                    Thread.yield();
+                    break;
+                }
+                // fall through
+            case BLOCKING:
+                park(parkNanos);
+                break;
+            default:
+                throw new IllegalStateException("Unknown wait strategy: " + waitStrategy);
+        }
+    }
+
+    private void park(long parkNanos) {
+        waiter = Thread.currentThread();
+        // not isEmpty(), slots held in a coalescing window would keep it from parking for the window
+        if (first == stub && stub.next == null) {
+            if (parkNanos < 0) LockSupport.park(this);
+            else LockSupport.parkNanos(this, parkNanos);
+        }
+        waiter = null;
+    }
+
+    @Override
+    public KeyValue<K, V> take() throws InterruptedException {
+        return await().getAndSet(null);
+    }
+
+    @Override
+    public int drainTo(Collection<? super KeyValue<K, V>> target, int max) {
+        if (target == null) throw new NullPointerException("target");
+        int drained = 0;
+        Slot<K, V> slot;
+        while (drained < max && (slot = poll()) != null) {
+            target.add(slot.getAndSet(null));
+            drained++;
+        }
+        return drained;
+    }
+
+    @Override
+    public int takeBatch(Collection<? super KeyValue<K, V>> target, int max) throws InterruptedException {
+        if (target == null) throw new NullPointerException("target");
+        if (max <= 0) throw new IllegalArgumentException("max: " + max);
+        target.add(await().getAndSet(null));
+        return 1 + drainTo(target, max - 1);
+    }
+
+    @Override
+    public int takeCoalesced(Collection<? super KeyValue<K, V>> target, int minKeys, long maxDelay, TimeUnit unit) throws InterruptedException {
+        if (target == null) throw new NullPointerException("target");
+        // polled slots keep their values until the end of the window, so offers keep conflating into them
+        int heldCount = 0;
+        held[heldCount++] = await();
+        this.heldCount = heldCount;
+        long deadline = System.nanoTime() + unit.toNanos(maxDelay);
+        int idleCount = 0;
+        while (heldCount < minKeys) {
+            Slot<K, V> slot = poll();
+            if (slot != null) {
+                if (heldCount == held.length) held = Arrays.copyOf(held, heldCount * 2);
+                held[heldCount++] = slot;
+                this.heldCount = heldCount;
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || Thread.currentThread().isInterrupted()) break;
+            idle(++idleCount, remaining);
+        }
+        for (int i = 0; i < heldCount; i++) {
+            target.add(held[i].getAndSet(null));
+            held[i] = null;
+        }
+        this.heldCount = 0;
+        return heldCount + drainTo(target, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return first == stub && stub.next == null && heldCount == 0;
+    }
+}
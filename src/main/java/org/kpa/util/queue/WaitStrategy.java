@@ -0,0 +1,23 @@
+package org.kpa.util.queue;
+
+/**
+ * How a consumer waits for the next item of an empty queue.
+ */
+public enum WaitStrategy {
+	/**
+	 * Parks the consumer thread until the producer unparks it. Lowest CPU usage, highest wake up latency.
+	 */
+	BLOCKING,
+	/**
+	 * Calls @{@link Thread#yield()} between attempts.
+	 */
+	YIELDING,
+	/**
+	 * Spins on the queue without ever releasing the CPU. Meant for consumers pinned to a dedicated core.
+	 */
+	BUSY_SPIN,
+	/**
+	 * Spins for a while, then yields for a while, then parks as @{@link #BLOCKING} does.
+	 */
+	SPIN_THEN_PARK
+}
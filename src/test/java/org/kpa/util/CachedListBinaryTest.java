@@ -0,0 +1,27 @@
+package org.kpa.util;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CachedListBinaryTest extends CachedListTest {
+    @Override
+    protected CachedList<String[]> createCache() {
+        return CachedList.createCachedBinaryStringArray("tmp", CACHE_CAPACITY, CACHE_STEP);
+    }
+
+    @Test
+    public void testRowsBeyondTail() {
+        try (CachedList<String[]> rows = createCache()) {
+            rows.add(new String[]{"BTCUSD", null, "€"});
+            for (int i = 0; i < 1_000; i++) rows.add(new String[]{"" + i});
+            // decoded from the store, the row is long out of the tail
+            assertArrayEquals(new String[]{"BTCUSD", null, "€"}, rows.get(0));
+            List<String[]> subList = rows.subList(1, 3);
+            assertArrayEquals(new String[]{"0"}, subList.get(0));
+            assertArrayEquals(new String[]{"1"}, subList.get(1));
+        }
+    }
+}
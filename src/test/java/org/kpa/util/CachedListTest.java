@@ -4,11 +4,20 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.*;
 
@@ -20,6 +29,10 @@ public class CachedListTest {
     private CachedList<String[]> cache;
     private List<String[]> expected;
 
+    protected CachedList<String[]> createCache() {
+        return CachedList.createCachedStringArray("tmp", CACHE_CAPACITY, CACHE_STEP);
+    }
+
     @Before
     public void prepare() {
         expected = new ArrayList<>();
@@ -30,7 +43,7 @@ public class CachedListTest {
                     "" + ThreadLocalRandom.current().nextLong(),
                     "" + ThreadLocalRandom.current().nextLong()});
         }
-        cache = CachedList.createCachedStringArray("tmp", CACHE_CAPACITY, CACHE_STEP);
+        cache = createCache();
         expected.forEach(cache::add);
     }
 
@@ -104,6 +117,103 @@ public class CachedListTest {
     }
 
 
+    @Test
+    public void testReadersNotBlockedByWriters() throws Exception {
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        try {
+            synchronized (cache) {
+                // the monitor is what appends hold
+                Future<List<String[]>> tail = reader.submit(() -> cache.subList(COUNT - 10, COUNT));
+                assertEquals(10, tail.get(5, TimeUnit.SECONDS).size());
+                Future<String[]> last = reader.submit(() -> cache.get(COUNT - 1));
+                assertEquals("" + (COUNT - 1), last.get(5, TimeUnit.SECONDS)[0]);
+                assertEquals(COUNT, (int) reader.submit(cache::size).get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            reader.shutdown();
+        }
+    }
+
+    @Test
+    public void testReadAhead() {
+        // scrolling back through history, then forward again
+        for (int start = COUNT - 1_000; start >= 0; start -= MAX_COUNT) {
+            List<String[]> items = cache.subList(start, start + MAX_COUNT);
+            for (int i = 0; i < MAX_COUNT; i++) assertArrayEquals(expected.get(start + i), items.get(i));
+        }
+        assertEquals(2, cache.getReadAheadMisses());
+        for (int start = 0; start < COUNT - 1_000; start += MAX_COUNT / 3) {
+            List<String[]> items = cache.subList(start, start + MAX_COUNT);
+            for (int i = 0; i < MAX_COUNT; i++) assertArrayEquals(expected.get(start + i), items.get(i));
+        }
+        // turning back is still served from the windows read ahead
+        assertEquals(2, cache.getReadAheadMisses());
+        assertTrue(cache.getReadAheadHits() > 100);
+    }
+
+    @Test
+    public void testTailBytes() {
+        cache.tailBytes(row -> 100, 2_000);
+        assertEquals(20, cache.getCachedSize());
+        assertTrue(cache.getCachedBytes() <= 2_000);
+        // within the capacity but no longer in the tail
+        List<String[]> items = cache.subList(COUNT - 50, COUNT);
+        for (int i = 0; i < 50; i++) assertArrayEquals(expected.get(COUNT - 50 + i), items.get(i));
+        assertArrayEquals(expected.get(COUNT - 60), cache.get(COUNT - 60));
+        for (int i = 0; i < 100; i++) cache.add(new String[]{"" + (COUNT + i)});
+        assertEquals(20, cache.getCachedSize());
+        assertEquals(COUNT + 80, cache.getLastStartIndex());
+        assertEquals("" + (COUNT + 50), cache.get(COUNT + 50)[0]);
+    }
+
+    @Test
+    public void testClearDuringReadAhead() throws Exception {
+        CountDownLatch readingAhead = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean holdReadAhead = new AtomicBoolean();
+        RecordCodec<String> codec = new RecordCodec<String>() {
+            @Override
+            public void encode(String value, DataOutput out) throws IOException {
+                RecordCodecs.STRING.encode(value, out);
+            }
+
+            @Override
+            public String decode(ByteBuffer in) {
+                if (holdReadAhead.get() && Thread.currentThread().getName().startsWith("cache_read_ahead")) {
+                    readingAhead.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return RecordCodecs.STRING.decode(in);
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (CachedList<String> list = CachedList.createCachedBinary("tmp", CACHE_CAPACITY, CACHE_STEP, codec)) {
+            for (int i = 0; i < COUNT; i++) list.add("old" + i);
+            holdReadAhead.set(true);
+            list.subList(0, MAX_COUNT);
+            // continues the previous read, the next windows are read ahead
+            list.subList(10, 10 + MAX_COUNT);
+            assertTrue(readingAhead.await(10, TimeUnit.SECONDS));
+            // served from the read ahead, waits for it
+            Future<List<String>> read = executor.submit(() -> list.subList(20, 20 + MAX_COUNT));
+            TimeUnit.MILLISECONDS.sleep(200);
+            list.clear();
+            for (int i = 0; i < COUNT; i++) list.add("new" + i);
+            release.countDown();
+            List<String> items = read.get(10, TimeUnit.SECONDS);
+            assertEquals(MAX_COUNT, items.size());
+            for (int i = 0; i < MAX_COUNT; i++) assertEquals("new" + (20 + i), items.get(i));
+            assertEquals("new20", list.subList(20, 20 + MAX_COUNT).get(0));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
     @After
     public void clear() {
         cache.close();
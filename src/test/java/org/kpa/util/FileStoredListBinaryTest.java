@@ -0,0 +1,54 @@
+package org.kpa.util;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FileStoredListBinaryTest extends FileStoredListTest {
+    @Override
+    protected FileStoredList<String> createList() {
+        return new FileStoredList<>("tmp", RecordCodecs.STRING);
+    }
+
+    @Test
+    public void testLengthPrefixedRecords() {
+        try (FileStoredList<String> list = createList()) {
+            long expectedBytes = 0;
+            for (int i = 0; i < 1_000; i++) {
+                String value = "str" + i;
+                list.add(value);
+                // record length, then string length and its UTF-8 bytes
+                expectedBytes += Integer.BYTES + Integer.BYTES + value.getBytes(StandardCharsets.UTF_8).length;
+            }
+            assertEquals("str999", list.get(999));
+            assertEquals(expectedBytes, list.storedBytes());
+        }
+    }
+
+    @Test
+    public void testArrayCodecs() {
+        List<String[]> rows = Arrays.asList(new String[]{"a", null, "привет", ""}, new String[0], null);
+        try (FileStoredList<String[]> list = new FileStoredList<>("tmp", RecordCodecs.STRING_ARRAY)) {
+            list.addAll(rows);
+            for (int i = 0; i < rows.size(); i++) assertArrayEquals(rows.get(i), list.get(i));
+        }
+        try (FileStoredList<long[]> list = new FileStoredList<>("tmp", RecordCodecs.LONG_ARRAY)) {
+            list.add(new long[]{Long.MIN_VALUE, 0, Long.MAX_VALUE});
+            list.add(null);
+            assertArrayEquals(new long[]{Long.MIN_VALUE, 0, Long.MAX_VALUE}, list.get(0));
+            assertNull(list.get(1));
+        }
+        try (FileStoredList<int[]> list = new FileStoredList<>("tmp", RecordCodecs.INT_ARRAY)) {
+            list.add(new int[]{-1, 7});
+            assertArrayEquals(new int[]{-1, 7}, list.get(0));
+        }
+        try (FileStoredList<double[]> list = new FileStoredList<>("tmp", RecordCodecs.DOUBLE_ARRAY)) {
+            list.add(new double[]{0.5, Double.NaN, -1e300});
+            assertArrayEquals(new double[]{0.5, Double.NaN, -1e300}, list.get(0), 0);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.kpa.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class FileStoredListChannelTest extends FileStoredListTest {
+    @Override
+    protected FileStoredList<String> createList() {
+        return new FileStoredList<>("tmp", Json::writeObject, line -> Json.readObject(line, String.class))
+                .flushPolicy(FlushPolicy.EVERY_BATCH);
+    }
+
+    @Test
+    public void testWrittenOnCommit() throws IOException {
+        Path file = Files.createTempFile("append_channel", ".dat");
+        try (AppendChannel channel = new AppendChannel(file.toString(), FlushPolicy.NONE, 0)) {
+            channel.write(new byte[100]);
+            // staged until the batch is committed
+            assertEquals(0, Files.size(file));
+            channel.commit();
+            assertEquals(100, Files.size(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testForcedPerPolicy() throws IOException {
+        assertEquals(0, forcesOfBatches(FlushPolicy.NONE, 0));
+        assertEquals(3, forcesOfBatches(FlushPolicy.EVERY_BATCH, 0));
+        // the first batch after the interval forces
+        assertEquals(0, forcesOfBatches(FlushPolicy.INTERVAL, 60_000));
+        assertEquals(3, forcesOfBatches(FlushPolicy.INTERVAL, 0));
+    }
+
+    /**
+     * @return forces by three batches, and an empty commit after them that has nothing to force
+     */
+    private static int forcesOfBatches(FlushPolicy flushPolicy, long intervalMillis) throws IOException {
+        Path file = Files.createTempFile("append_channel", ".dat");
+        try (AppendChannel channel = new AppendChannel(file.toString(), flushPolicy, intervalMillis)) {
+            for (int batch = 0; batch < 3; batch++) {
+                channel.write(new byte[10]);
+                channel.commit();
+            }
+            channel.commit();
+            assertEquals(30, Files.size(file));
+            return channel.forces();
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.kpa.util;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FileStoredListCompressedTest extends FileStoredListTest {
+    @Override
+    protected FileStoredList<String> createList() {
+        return new FileStoredList<>("tmp", RecordCodecs.STRING)
+                .rollSegments(16 * 1_024, 1_000)
+                .compressSealed(4 * 1_024, 4);
+    }
+
+    @Test
+    public void testReadCompressed() throws InterruptedException {
+        try (FileStoredList<String> list = createList()) {
+            for (int i = 0; i < COUNT; i++) list.add("str" + i);
+            assertEquals("str" + (COUNT - 1), list.get(COUNT - 1));
+            awaitSealedCompressed(list);
+            for (int i = 0; i < COUNT; i += 997) assertEquals("str" + i, list.get(i));
+            Iterator<String> iter = list.iterator();
+            for (int i = 0; i < COUNT; i++) assertEquals("str" + i, iter.next());
+            assertFalse(iter.hasNext());
+        }
+    }
+
+    @Test
+    public void testGetInflatesOneBlock() throws InterruptedException {
+        try (FileStoredList<String> list = createList()) {
+            for (int i = 0; i < COUNT; i++) list.add("str" + i);
+            assertEquals("str" + (COUNT - 1), list.get(COUNT - 1));
+            awaitSealedCompressed(list);
+            int inflated = list.inflatedBlocks();
+            assertEquals("str0", list.get(0));
+            assertEquals(inflated + 1, list.inflatedBlocks());
+            // same block, served by the cache
+            assertEquals("str1", list.get(1));
+            assertEquals(inflated + 1, list.inflatedBlocks());
+            assertEquals("str2000", list.get(2_000));
+            assertEquals(inflated + 2, list.inflatedBlocks());
+            assertEquals("str0", list.get(0));
+            assertEquals(inflated + 2, list.inflatedBlocks());
+        }
+    }
+
+    /**
+     * Segments are compressed by the writer pool after they are sealed.
+     */
+    static void awaitSealedCompressed(FileStoredList<?> list) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (list.compressedSegments() < list.segmentCount() - 1 && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertTrue(list.segmentCount() > 1);
+        assertEquals(list.segmentCount() - 1, list.compressedSegments());
+    }
+}
@@ -0,0 +1,159 @@
+package org.kpa.util;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class FileStoredListDurableTest extends FileStoredListTest {
+    private final List<Path> directories = new ArrayList<>();
+
+    @Override
+    protected FileStoredList<String> createList() {
+        try {
+            Path directory = Files.createTempDirectory("durable_store");
+            directories.add(directory);
+            return open(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static FileStoredList<String> open(Path directory) {
+        return new FileStoredList<>(directory, RecordCodecs.STRING).rollSegments(16 * 1_024, 1_000);
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        try {
+            for (Path directory : directories) FileUtils.deleteDirectory(directory.toFile());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Test
+    public void testReopen() {
+        Path directory;
+        try (FileStoredList<String> list = createList()) {
+            directory = directories.get(directories.size() - 1);
+            for (int i = 0; i < COUNT; i++) list.add("str" + i);
+        }
+        try (FileStoredList<String> list = open(directory)) {
+            assertEquals(COUNT, list.size());
+            assertEquals("str0", list.get(0));
+            assertEquals("str" + (COUNT - 1), list.get(COUNT - 1));
+            list.add("next");
+            assertEquals("next", list.get(COUNT));
+        }
+        try (FileStoredList<String> list = open(directory)) {
+            assertEquals(COUNT + 1, list.size());
+            Iterator<String> iter = list.iterator();
+            for (int i = 0; i < COUNT; i++) assertEquals("str" + i, iter.next());
+            assertEquals("next", iter.next());
+            assertFalse(iter.hasNext());
+        }
+    }
+
+    @Test
+    public void testReopenCompressed() throws IOException, InterruptedException {
+        Path directory;
+        try (FileStoredList<String> list = createList().compressSealed(4 * 1_024, 4)) {
+            directory = directories.get(directories.size() - 1);
+            for (int i = 0; i < COUNT; i++) list.add("str" + i);
+            assertEquals("str" + (COUNT - 1), list.get(COUNT - 1));
+            FileStoredListCompressedTest.awaitSealedCompressed(list);
+        }
+        try (FileStoredList<String> list = open(directory)) {
+            // opened from the footers of the compressed files, not compressed again
+            assertEquals(list.segmentCount() - 1, list.compressedSegments());
+            try (Stream<Path> files = Files.list(directory)) {
+                assertEquals(list.segmentCount() - 1, files.filter(file -> file.toString().endsWith(".z")).count());
+            }
+            assertEquals(COUNT, list.size());
+            for (int i = 0; i < COUNT; i += 997) assertEquals("str" + i, list.get(i));
+        }
+    }
+
+    @Test
+    public void testReopenWhileCompressing() {
+        for (int run = 0; run < 5; run++) {
+            Path directory;
+            try (FileStoredList<String> list = createList().compressSealed(4 * 1_024, 4)) {
+                directory = directories.get(directories.size() - 1);
+                for (int i = 0; i < COUNT; i++) list.add("str" + i);
+            }
+            // closed with the sealed segments still being compressed
+            try (FileStoredList<String> list = open(directory)) {
+                assertEquals(COUNT, list.size());
+                Iterator<String> iter = list.iterator();
+                for (int i = 0; i < COUNT; i++) assertEquals("str" + i, iter.next());
+            }
+        }
+    }
+
+    @Test
+    public void testRescanLines() throws IOException {
+        Path directory = Files.createTempDirectory("durable_store");
+        directories.add(directory);
+        try (FileStoredList<String> list = new FileStoredList<>(directory, Function.identity(), Function.identity())) {
+            list.add("str0");
+            list.add("привет");
+            list.add("€");
+            list.add("");
+            list.add("str4");
+            assertEquals("str4", list.get(4));
+        }
+        // no checkpoint, so the lines are rescanned on reopen
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.toString().endsWith(".idx")) Files.delete(file);
+            }
+        }
+        try (FileStoredList<String> list = new FileStoredList<>(directory, Function.identity(), Function.identity())) {
+            assertEquals(5, list.size());
+            assertEquals("привет", list.get(1));
+            assertEquals("€", list.get(2));
+            assertEquals("", list.get(3));
+            assertEquals("str4", list.get(4));
+        }
+    }
+
+    @Test
+    public void testRecoverTornTail() throws IOException {
+        Path directory;
+        try (FileStoredList<String> list = createList()) {
+            directory = directories.get(directories.size() - 1);
+            for (int i = 0; i < COUNT; i++) list.add("str" + i);
+        }
+        Path tail;
+        try (Stream<Path> files = Files.list(directory)) {
+            tail = files.filter(file -> file.toString().endsWith(".dat")).max(Comparator.naturalOrder()).get();
+        }
+        // a record cut by a crash, its length prefix says there's more than written
+        try (FileChannel channel = FileChannel.open(tail, StandardOpenOption.APPEND)) {
+            channel.write((ByteBuffer) ByteBuffer.allocate(6).putInt(100).flip());
+        }
+        try (FileStoredList<String> list = open(directory)) {
+            assertEquals(COUNT, list.size());
+            list.add("next");
+            assertEquals("str" + (COUNT - 1), list.get(COUNT - 1));
+            assertEquals("next", list.get(COUNT));
+        }
+    }
+}
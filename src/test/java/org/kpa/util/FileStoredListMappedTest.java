@@ -0,0 +1,36 @@
+package org.kpa.util;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class FileStoredListMappedTest extends FileStoredListTest {
+    @Override
+    protected FileStoredList<String> createList() {
+        return super.createList().mappedReads();
+    }
+
+    @Test
+    public void testReadsMapGrowingFile() {
+        try (FileStoredList<String> list = createList()) {
+            for (int i = 0; i < 1_000; i++) list.add("str" + i);
+            assertEquals(0, list.mappedBytes());
+            assertEquals("str999", list.get(999));
+            long mapped = list.mappedBytes();
+            assertTrue(mapped > 0);
+            for (int i = 1_000; i < 2_000; i++) list.add("str" + i);
+            // read past the mapped end, remapped
+            assertEquals("str1999", list.get(1_999));
+            assertTrue(list.mappedBytes() > mapped);
+            Iterator<String> iter = list.iterator(1_990);
+            for (int i = 1_990; i < 2_000; i++) assertEquals("str" + i, iter.next());
+        }
+        try (FileStoredList<String> list = super.createList()) {
+            for (int i = 0; i < 1_000; i++) list.add("str" + i);
+            assertEquals("str999", list.get(999));
+            assertEquals(0, list.mappedBytes());
+        }
+    }
+}
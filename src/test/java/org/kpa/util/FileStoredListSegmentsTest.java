@@ -0,0 +1,80 @@
+package org.kpa.util;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FileStoredListSegmentsTest extends FileStoredListTest {
+    @Override
+    protected FileStoredList<String> createList() {
+        return super.createList().rollSegments(16 * 1_024, 1_000);
+    }
+
+    @Test
+    public void testRetention() {
+        try (FileStoredList<String> list = new FileStoredList<>("tmp", RecordCodecs.STRING)
+                .rollSegments(Long.MAX_VALUE, 100)
+                .retention(500, Long.MAX_VALUE, Long.MAX_VALUE)) {
+            for (int i = 0; i < 2_000; i++) list.add("str" + i);
+            assertEquals("str1999", list.get(1_999));
+            assertEquals(2_000, list.size());
+            int firstIndex = list.getFirstIndex();
+            assertTrue("firstIndex=" + firstIndex, firstIndex > 1_000 && firstIndex <= 1_500);
+            assertEquals(0, firstIndex % 100);
+            assertEquals("str" + firstIndex, list.get(firstIndex));
+            List<String> subList = list.subList(1_900, 1_910);
+            assertEquals("str1900", subList.get(0));
+            Iterator<String> iter = list.iterator();
+            assertEquals("str" + firstIndex, iter.next());
+            try {
+                list.get(0);
+                fail();
+            } catch (IndexOutOfBoundsException e) {
+                // dropped
+            }
+        }
+    }
+
+    @Test
+    public void testRetentionByBytes() {
+        try (FileStoredList<String> list = new FileStoredList<>("tmp", RecordCodecs.STRING)
+                .rollSegments(Long.MAX_VALUE, 100)
+                .retention(Integer.MAX_VALUE, 10_000, Long.MAX_VALUE)) {
+            for (int i = 0; i < 2_000; i++) list.add("str" + i);
+            assertEquals("str1999", list.get(1_999));
+            assertTrue("storedBytes=" + list.storedBytes(), list.storedBytes() <= 10_000);
+            int firstIndex = list.getFirstIndex();
+            // whole segments are dropped, the indices of the rest stay
+            assertEquals(0, firstIndex % 100);
+            assertEquals((2_000 - firstIndex) / 100 + 1, list.segmentCount());
+            assertEquals("str" + firstIndex, list.get(firstIndex));
+            try {
+                list.get(firstIndex - 1);
+                fail();
+            } catch (IndexOutOfBoundsException e) {
+                // dropped
+            }
+        }
+    }
+
+    @Test
+    public void testRetentionByAge() throws InterruptedException {
+        try (FileStoredList<String> list = new FileStoredList<>("tmp", RecordCodecs.STRING)
+                .rollSegments(Long.MAX_VALUE, 100)
+                .retention(Integer.MAX_VALUE, Long.MAX_VALUE, 200)) {
+            for (int i = 0; i < 500; i++) list.add("str" + i);
+            assertEquals("str499", list.get(499));
+            assertEquals(0, list.getFirstIndex());
+            TimeUnit.MILLISECONDS.sleep(300);
+            // applied with the next batch, the sealed segments are older than the retention by then
+            list.add("str500");
+            assertEquals("str500", list.get(500));
+            assertEquals(500, list.getFirstIndex());
+            assertEquals(1, list.segmentCount());
+        }
+    }
+}
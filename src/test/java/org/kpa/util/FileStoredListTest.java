@@ -0,0 +1,133 @@
+package org.kpa.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class FileStoredListTest {
+    public static final int COUNT = 10_000;
+    private FileStoredList<String> list;
+
+    protected FileStoredList<String> createList() {
+        return new FileStoredList<>("tmp",
+                (file, strings) -> Json.toFile(file, strings, StandardOpenOption.APPEND),
+                line -> Json.readObject(line, String.class));
+    }
+
+    @Before
+    public void prepare() {
+        list = createList();
+        for (int i = 0; i < COUNT; i += 100) {
+            for (int j = i; j < i + 100; j++) list.add("str" + j);
+        }
+    }
+
+    @Test
+    public void testGet() {
+        assertEquals(COUNT, list.size());
+        assertEquals("str0", list.get(0));
+        assertEquals("str5000", list.get(5000));
+        assertEquals("str" + (COUNT - 1), list.get(COUNT - 1));
+        list.add("last");
+        assertEquals("last", list.get(COUNT));
+    }
+
+    @Test
+    public void testSubList() {
+        List<String> subList = list.subList(7_000, 7_010);
+        assertEquals(10, subList.size());
+        for (int i = 0; i < 10; i++) assertEquals("str" + (7_000 + i), subList.get(i));
+        assertTrue(list.subList(COUNT, COUNT).isEmpty());
+    }
+
+    @Test
+    public void testIterator() {
+        Iterator<String> iter = list.iterator(COUNT - 2);
+        assertEquals("str" + (COUNT - 2), iter.next());
+        assertEquals("str" + (COUNT - 1), iter.next());
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testClear() {
+        list.clear();
+        assertEquals(0, list.size());
+        list.add("new");
+        assertEquals("new", list.get(0));
+        assertEquals(1, list.subList(0, 1).size());
+    }
+
+    @Test
+    public void testParallelStores() throws InterruptedException {
+        try (StoreWriter writer = new StoreWriter("test_writer", 2)) {
+            List<FileStoredList<String>> stores = new ArrayList<>();
+            List<Thread> threads = new ArrayList<>();
+            for (int s = 0; s < 4; s++) {
+                FileStoredList<String> store = createList().writeWith(writer);
+                stores.add(store);
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < COUNT; i++) store.add("str" + i);
+                }));
+            }
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) thread.join();
+            for (FileStoredList<String> store : stores) {
+                assertEquals("str" + (COUNT - 1), store.get(COUNT - 1));
+                assertEquals("str0", store.iterator().next());
+                store.close();
+            }
+        }
+    }
+
+    @Test
+    public void testTail() throws Exception {
+        ExecutorService consumer = Executors.newSingleThreadExecutor();
+        try (AutoCloseableIterator<String> tail = list.tail(COUNT - 10, 5_000)) {
+            Future<List<String>> consumed = consumer.submit(() -> {
+                List<String> items = new ArrayList<>();
+                while (items.size() < 110 && tail.hasNext()) items.add(tail.next());
+                return items;
+            });
+            for (int i = COUNT; i < COUNT + 100; i++) list.add("str" + i);
+            List<String> items = consumed.get(10, TimeUnit.SECONDS);
+            assertEquals(110, items.size());
+            for (int i = 0; i < items.size(); i++) assertEquals("str" + (COUNT - 10 + i), items.get(i));
+            // nothing more is appended
+            try (AutoCloseableIterator<String> idle = list.tail(COUNT + 100, 50)) {
+                assertFalse(idle.hasNext());
+            }
+        } finally {
+            consumer.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelStream() {
+        Spliterator<String> spliterator = list.spliterator();
+        Spliterator<String> prefix = spliterator.trySplit();
+        assertNotNull(prefix);
+        assertEquals(COUNT, prefix.estimateSize() + spliterator.estimateSize());
+        long sum = list.stream().parallel().mapToLong(item -> Long.parseLong(item.substring("str".length()))).sum();
+        assertEquals((long) COUNT * (COUNT - 1) / 2, sum);
+        List<String> items = list.stream().parallel().collect(Collectors.toList());
+        for (int i = 0; i < COUNT; i++) assertEquals("str" + i, items.get(i));
+    }
+
+    @After
+    public void clear() {
+        list.close();
+    }
+}
@@ -0,0 +1,76 @@
+package org.kpa.util;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IntLruCacheTest {
+
+    @Test
+    public void testEviction() {
+        IntLruCache<String> cache = new IntLruCache<>(2);
+        cache.put(1, "1");
+        cache.put(2, "2");
+        assertEquals("1", cache.get(1));
+        cache.put(3, "3");
+        assertNull(cache.get(2));
+        assertEquals("1", cache.get(1));
+        assertEquals("3", cache.get(3));
+        cache.put(3, "33");
+        assertEquals("33", cache.get(3));
+        assertEquals(2, cache.size());
+        cache.clear();
+        assertNull(cache.get(1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testAgainstLinkedHashMap() {
+        int capacity = 100;
+        IntLruCache<Integer> cache = new IntLruCache<>(capacity);
+        Map<Integer, Integer> expected = new LinkedHashMap<Integer, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest) {
+                return size() > capacity;
+            }
+        };
+        Random random = new Random(1);
+        for (int i = 0; i < 100_000; i++) {
+            // keys collide a lot in the table and many of them are negative
+            int key = (random.nextInt(300) - 150) * 1024;
+            if (random.nextBoolean()) {
+                cache.put(key, i);
+                expected.put(key, i);
+            } else {
+                assertEquals(expected.get(key), cache.get(key));
+            }
+        }
+        assertEquals(expected.size(), cache.size());
+    }
+
+    @Test
+    public void testRemoveAndGrow() {
+        IntLruCache<Integer> cache = new IntLruCache<>(4);
+        Map<Integer, Integer> expected = new LinkedHashMap<>(16, 0.75f, true);
+        Random random = new Random(1);
+        for (int i = 0; i < 100_000; i++) {
+            int key = (random.nextInt(300) - 150) * 1024;
+            int operation = random.nextInt(3);
+            if (operation == 0) {
+                if (cache.size() == cache.capacity()) cache.ensureCapacity(cache.capacity() * 2);
+                cache.put(key, i);
+                expected.put(key, i);
+            } else if (operation == 1) {
+                assertEquals(expected.remove(key), cache.remove(key));
+            } else {
+                assertEquals(expected.get(key), cache.get(key));
+            }
+            if (!expected.isEmpty()) assertEquals(expected.keySet().iterator().next(), (Integer) cache.eldestKey());
+        }
+        assertEquals(expected.size(), cache.size());
+    }
+}
@@ -0,0 +1,63 @@
+package org.kpa.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TieredCacheTest {
+
+    @Test
+    public void testDemoteAndPromote() {
+        TieredCache<String> cache = new TieredCache<>(String::length, 100, 1_000);
+        cache.configure(String::length, 100, 1_000, RecordCodecs.STRING, 1_024);
+        for (int i = 0; i < 10; i++) cache.put(i, value(i));
+        assertTrue(cache.heapBytes() <= 100);
+        assertEquals(10, cache.heapSize() + cache.offHeapSize());
+        // the oldest ones were demoted, a hit promotes them back
+        assertEquals(value(0), cache.get(0));
+        assertEquals(value(0), cache.get(0));
+        assertTrue(cache.heapBytes() <= 100);
+        for (int i = 0; i < 10; i++) assertEquals(value(i), cache.get(i));
+        cache.clear();
+        assertNull(cache.get(5));
+        assertEquals(0, cache.heapSize() + cache.offHeapSize());
+    }
+
+    @Test
+    public void testOffHeapEviction() {
+        TieredCache<String> cache = new TieredCache<>(String::length, 100, 1_000);
+        cache.configure(String::length, 100, 1_000, RecordCodecs.STRING, 1_000);
+        int count = 1_000;
+        for (int i = 0; i < count; i++) cache.put(i, value(i));
+        assertTrue(cache.offHeapBytes() <= 1_000);
+        // the ring log evicts the oldest values, the newest are still held
+        assertNull(cache.get(0));
+        for (int i = count - 20; i < count; i++) assertEquals(value(i), cache.get(i));
+    }
+
+    @Test
+    public void testHeapOnly() {
+        TieredCache<String> cache = new TieredCache<>(String::length, 100, 1_000);
+        for (int i = 0; i < 100; i++) cache.put(i, value(i));
+        assertTrue(cache.heapBytes() <= 100);
+        assertEquals(0, cache.offHeapSize());
+        assertNull(cache.get(0));
+        assertEquals(value(99), cache.get(99));
+    }
+
+    @Test
+    public void testHeapEntriesBound() {
+        TieredCache<String> cache = new TieredCache<>(value -> 1, 1_000, 4);
+        cache.configure(value -> 1, 1_000, 4, RecordCodecs.STRING, 1_024);
+        for (int i = 0; i < 10; i++) cache.put(i, value(i));
+        // demoted by count while far below the heap budget
+        assertEquals(4, cache.heapSize());
+        assertEquals(6, cache.offHeapSize());
+        for (int i = 0; i < 10; i++) assertEquals(value(i), cache.get(i));
+        assertEquals(4, cache.heapSize());
+    }
+
+    private static String value(int i) {
+        return "value-" + i + "-" + new String(new char[i % 7]).replace('\0', 'x');
+    }
+}
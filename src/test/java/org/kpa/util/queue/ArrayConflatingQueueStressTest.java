@@ -0,0 +1,8 @@
+package org.kpa.util.queue;
+
+public class ArrayConflatingQueueStressTest extends ConflatingQueueImplStressTest {
+    @Override
+    protected ConflatingQueue<String, Integer> createQueue() {
+        return new ArrayConflatingQueue<>(2);
+    }
+}
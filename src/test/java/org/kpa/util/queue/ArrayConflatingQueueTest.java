@@ -0,0 +1,62 @@
+package org.kpa.util.queue;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ArrayConflatingQueueTest extends ConflatingQueueImplTest {
+    @Override
+    protected ConflatingQueue<String, Integer> createQueue() {
+        return new ArrayConflatingQueue<>(2);
+    }
+
+    @Test
+    public void testTakeNotStarvedByCoalescing() throws Exception {
+        assertTakeNotStarvedByCoalescing(createQueue());
+    }
+
+    @Test
+    public void testOfferAllocationFree() throws InterruptedException {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+        ArrayConflatingQueue<String, Integer> queue = new ArrayConflatingQueue<>(2);
+        List<KeyValue<String, Integer>> updates = new ArrayList<>();
+        for (int i = 0; i < 100; i++) updates.add(KeyValueImpl.of(i % 2 == 0 ? "BTCUSD" : "ETHUSD", i));
+        // registers the keys
+        for (KeyValue<String, Integer> update : updates) queue.offer(update);
+        queue.take();
+        queue.take();
+        long threadId = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        for (int round = 0; round < 1_000; round++) {
+            for (int i = 0; i < updates.size(); i++) queue.offer(updates.get(i));
+            queue.take();
+            queue.take();
+        }
+        long allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+        // 200k offers, nearly all of them to a queued key; allows for the few objects of the measurement itself
+        assertTrue("allocated " + allocated + " bytes", allocated < 10_000);
+    }
+
+    @Test
+    public void testGrowKeepsOrder() throws InterruptedException {
+        ArrayConflatingQueue<String, Integer> queue = new ArrayConflatingQueue<>(2);
+        queue.offer(KeyValueImpl.of("KEY0", 0));
+        queue.offer(KeyValueImpl.of("KEY1", 1));
+        // the ring wraps before it grows
+        assertEquals(KeyValueImpl.of("KEY0", 0), queue.take());
+        for (int key = 2; key < 10; key++) queue.offer(KeyValueImpl.of("KEY" + key, key));
+        queue.offer(KeyValueImpl.of("KEY1", 11));
+        for (int key = 1; key < 10; key++) {
+            assertEquals(KeyValueImpl.of("KEY" + key, key == 1 ? 11 : key), queue.take());
+        }
+        assertTrue(queue.isEmpty());
+    }
+}
@@ -0,0 +1,90 @@
+package org.kpa.util.queue;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class BoundedConflatingQueueTest extends ConflatingQueueImplTest {
+    @Override
+    protected ConflatingQueue<String, Integer> createQueue() {
+        return new BoundedConflatingQueue<>(16, OverflowPolicy.BLOCK);
+    }
+
+    @Test
+    public void testTakeNotStarvedByCoalescing() throws Exception {
+        assertTakeNotStarvedByCoalescing(createQueue());
+    }
+
+    @Test
+    public void testUpdateOfQueuedKeyWhenFull() throws Exception {
+        ExecutorService producer = Executors.newSingleThreadExecutor();
+        try {
+            for (OverflowPolicy policy : OverflowPolicy.values()) {
+                BoundedConflatingQueue<String, Integer> bounded = new BoundedConflatingQueue<>(2, policy);
+                bounded.offer(KeyValueImpl.of("BTCUSD", 7000));
+                bounded.offer(KeyValueImpl.of("ETHUSD", 250));
+                // neither blocks, rejects nor drops anything
+                assertTrue(policy.name(), producer.submit(() -> bounded.offer(KeyValueImpl.of("BTCUSD", 7001)))
+                        .get(5, TimeUnit.SECONDS));
+                assertEquals(policy.name(), 0, bounded.getOverflowCount());
+                assertEquals(KeyValueImpl.of("BTCUSD", 7001), bounded.take());
+                assertEquals(KeyValueImpl.of("ETHUSD", 250), bounded.take());
+                assertTrue(bounded.isEmpty());
+            }
+        } finally {
+            producer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testReject() throws InterruptedException {
+        BoundedConflatingQueue<String, Integer> bounded = new BoundedConflatingQueue<>(2, OverflowPolicy.REJECT);
+        assertTrue(bounded.offer(KeyValueImpl.of("BTCUSD", 7000)));
+        assertTrue(bounded.offer(KeyValueImpl.of("ETHUSD", 250)));
+        assertFalse(bounded.offer(KeyValueImpl.of("XBT", 6000)));
+        assertTrue(bounded.offer(KeyValueImpl.of("BTCUSD", 7001)));
+        assertEquals(1, bounded.getOverflowCount());
+        assertEquals(KeyValueImpl.of("BTCUSD", 7001), bounded.take());
+        assertEquals(KeyValueImpl.of("ETHUSD", 250), bounded.take());
+        assertTrue(bounded.isEmpty());
+    }
+
+    @Test
+    public void testDropOldest() throws InterruptedException {
+        BoundedConflatingQueue<String, Integer> bounded = new BoundedConflatingQueue<>(2, OverflowPolicy.DROP_OLDEST);
+        bounded.offer(KeyValueImpl.of("BTCUSD", 7000));
+        bounded.offer(KeyValueImpl.of("ETHUSD", 250));
+        bounded.offer(KeyValueImpl.of("ETHUSD", 251));
+        assertTrue(bounded.offer(KeyValueImpl.of("XBT", 6000)));
+        assertEquals(KeyValueImpl.of("ETHUSD", 251), bounded.take());
+        assertEquals(KeyValueImpl.of("XBT", 6000), bounded.take());
+        assertTrue(bounded.isEmpty());
+    }
+
+    @Test
+    public void testBlock() throws InterruptedException {
+        BoundedConflatingQueue<String, Integer> bounded = new BoundedConflatingQueue<>(1, OverflowPolicy.BLOCK);
+        bounded.offer(KeyValueImpl.of("BTCUSD", 7000));
+        AtomicBoolean offered = new AtomicBoolean();
+        CountDownLatch started = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            started.countDown();
+            offered.set(bounded.offer(KeyValueImpl.of("ETHUSD", 250)));
+        });
+        producer.start();
+        started.await();
+        assertTrue(bounded.offer(KeyValueImpl.of("BTCUSD", 7001)));
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertFalse(offered.get());
+        assertEquals(KeyValueImpl.of("BTCUSD", 7001), bounded.take());
+        producer.join(10_000);
+        assertTrue(offered.get());
+        assertEquals(KeyValueImpl.of("ETHUSD", 250), bounded.take());
+    }
+}
@@ -20,7 +20,7 @@ public class ConflatingQueueImplStressTest {
     private volatile long lastReadNanos = 0;
     private final List<Long> durations = new ArrayList<>(100);
     private final Map<String, Integer> lastPrices = new ConcurrentHashMap<>();
-    private final ConflatingQueue<String, Integer> queue = new ConflatingQueueImpl<>();
+    private final ConflatingQueue<String, Integer> queue = createQueue();
 
     private final Thread consumerThread = new Thread(() -> {
         while (!Thread.interrupted()) {
@@ -101,6 +101,10 @@ public class ConflatingQueueImplStressTest {
     }
 
 
+    protected ConflatingQueue<String, Integer> createQueue() {
+        return new ConflatingQueueImpl<>();
+    }
+
     @Before
     public void prepare() {
         consumerThread.start();
@@ -4,13 +4,21 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 
 public class ConflatingQueueImplTest {
-    private final ConflatingQueue<String, Integer> queue = new ConflatingQueueImpl<>();
+    private final ConflatingQueue<String, Integer> queue = createQueue();
     private final AtomicReference<CountDownLatch> consumerLatch = new AtomicReference<>(new CountDownLatch(1));
     private final AtomicReference<CountDownLatch> producerLatch = new AtomicReference<>(new CountDownLatch(1));
     private volatile KeyValue<String, Integer> lastVal = KeyValueImpl.of("DUMMY", 0);
@@ -51,6 +59,123 @@ public class ConflatingQueueImplTest {
     }
 
 
+    @Test
+    public void testDrain() throws InterruptedException {
+        List<KeyValue<String, Integer>> batch = new ArrayList<>();
+        assertEquals(0, queue.drainTo(batch, 10));
+
+        queue.offer(KeyValueImpl.of("BTCUSD", 7001));
+        queue.offer(KeyValueImpl.of("ETHUSD", 250));
+        queue.offer(KeyValueImpl.of("XBT", 6000));
+        queue.offer(KeyValueImpl.of("BTCUSD", 7002));
+        assertEquals(2, queue.drainTo(batch, 2));
+        assertEquals(Arrays.asList(KeyValueImpl.of("BTCUSD", 7002), KeyValueImpl.of("ETHUSD", 250)), batch);
+
+        batch.clear();
+        queue.offer(KeyValueImpl.of("BTCUSD", 7003));
+        assertEquals(2, queue.takeBatch(batch, 10));
+        assertEquals(Arrays.asList(KeyValueImpl.of("XBT", 6000), KeyValueImpl.of("BTCUSD", 7003)), batch);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testDrainRacingOffers() throws InterruptedException {
+        int keys = 8;
+        int rounds = 20_000;
+        Thread producer = new Thread(() -> {
+            for (int round = 0; round < rounds; round++) {
+                for (int key = 0; key < keys; key++) queue.offer(KeyValueImpl.of("KEY" + key, round));
+            }
+        });
+        producer.start();
+        int[] last = new int[keys];
+        Arrays.fill(last, -1);
+        List<KeyValue<String, Integer>> batch = new ArrayList<>();
+        while (producer.isAlive() || !queue.isEmpty()) {
+            batch.clear();
+            queue.drainTo(batch, keys / 2);
+            boolean[] drained = new boolean[keys];
+            for (KeyValue<String, Integer> keyValue : batch) {
+                int key = Integer.parseInt(keyValue.getKey().substring(3));
+                // a key is drained once per batch, with a value newer than any taken before
+                assertFalse(drained[key]);
+                drained[key] = true;
+                assertTrue(keyValue.getValue() > last[key]);
+                last[key] = keyValue.getValue();
+            }
+        }
+        producer.join();
+        for (int key = 0; key < keys; key++) assertEquals(rounds - 1, last[key]);
+    }
+
+    @Test
+    public void testCoalesced() throws InterruptedException {
+        List<KeyValue<String, Integer>> batch = new ArrayList<>();
+        queue.offer(KeyValueImpl.of("BTCUSD", 7000));
+        queue.offer(KeyValueImpl.of("ETHUSD", 250));
+        queue.offer(KeyValueImpl.of("XBT", 6000));
+        assertEquals(3, queue.takeCoalesced(batch, 2, 10, TimeUnit.SECONDS));
+        assertTrue(queue.isEmpty());
+
+        batch.clear();
+        queue.offer(KeyValueImpl.of("BTCUSD", 7001));
+        long start = System.nanoTime();
+        assertEquals(1, queue.takeCoalesced(batch, 5, 50, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(Collections.singletonList(KeyValueImpl.of("BTCUSD", 7001)), batch);
+
+        batch.clear();
+        queue.offer(KeyValueImpl.of("BTCUSD", 7002));
+        Thread producer = new Thread(() -> {
+            queue.offer(KeyValueImpl.of("BTCUSD", 7003));
+            queue.offer(KeyValueImpl.of("ETHUSD", 251));
+        });
+        producer.start();
+        assertEquals(2, queue.takeCoalesced(batch, 2, 10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(KeyValueImpl.of("BTCUSD", 7003), KeyValueImpl.of("ETHUSD", 251)), batch);
+        producer.join();
+    }
+
+    @Test
+    public void testNotEmptyWhileCoalescing() throws Exception {
+        queue.offer(KeyValueImpl.of("BTCUSD", 7000));
+        ExecutorService consumer = Executors.newSingleThreadExecutor();
+        try {
+            List<KeyValue<String, Integer>> batch = new ArrayList<>();
+            Future<Integer> coalesced = consumer.submit(() -> queue.takeCoalesced(batch, 100, 10, TimeUnit.SECONDS));
+            TimeUnit.MILLISECONDS.sleep(100);
+            // the key is pending until the window ends
+            assertFalse(coalesced.isDone());
+            assertFalse(queue.isEmpty());
+            consumer.shutdownNow();
+            assertEquals(1, (int) coalesced.get(5, TimeUnit.SECONDS));
+            assertEquals(Collections.singletonList(KeyValueImpl.of("BTCUSD", 7000)), batch);
+            assertTrue(queue.isEmpty());
+        } finally {
+            consumer.shutdownNow();
+        }
+    }
+
+    /**
+     * For queues whose pending keys stay available to other consumers during a coalescing window: a taker blocked
+     * behind a coalescing consumer gets the next key right away.
+     */
+    static void assertTakeNotStarvedByCoalescing(ConflatingQueue<String, Integer> queue) throws Exception {
+        ExecutorService consumers = Executors.newCachedThreadPool();
+        try {
+            queue.offer(KeyValueImpl.of("BTCUSD", 7000));
+            consumers.submit(() -> queue.takeCoalesced(new ArrayList<>(), 100, 10, TimeUnit.SECONDS));
+            TimeUnit.MILLISECONDS.sleep(100);
+            assertEquals(KeyValueImpl.of("BTCUSD", 7000), consumers.submit(queue::take).get(5, TimeUnit.SECONDS));
+            Future<KeyValue<String, Integer>> taken = consumers.submit(queue::take);
+            TimeUnit.MILLISECONDS.sleep(100);
+            queue.offer(KeyValueImpl.of("ETHUSD", 250));
+            assertEquals(KeyValueImpl.of("ETHUSD", 250), taken.get(1, TimeUnit.SECONDS));
+        } finally {
+            consumers.shutdownNow();
+        }
+    }
+
     public void awaiLatch(AtomicReference<CountDownLatch> latchRef) throws InterruptedException {
         latchRef.get().await();
         latchRef.set(new CountDownLatch(1));
@@ -63,6 +188,10 @@ public class ConflatingQueueImplTest {
     }
 
 
+    protected ConflatingQueue<String, Integer> createQueue() {
+        return new ConflatingQueueImpl<>();
+    }
+
     @Before
     public void prepare() {
         consumerThread.start();
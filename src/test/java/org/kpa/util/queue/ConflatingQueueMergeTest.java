@@ -0,0 +1,24 @@
+package org.kpa.util.queue;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Merging is specific to @{@link ConflatingQueueImpl}, so it's not part of the contract tests every queue inherits.
+ */
+public class ConflatingQueueMergeTest {
+
+    @Test
+    public void testMerge() throws InterruptedException {
+        ConflatingQueue<String, Integer> volumes = new ConflatingQueueImpl<>(Integer::sum);
+        volumes.offer(KeyValueImpl.of("BTCUSD", 10));
+        volumes.offer(KeyValueImpl.of("ETHUSD", 3));
+        volumes.offer(KeyValueImpl.of("BTCUSD", 5));
+        assertEquals(KeyValueImpl.of("BTCUSD", 15), volumes.take());
+        volumes.offer(KeyValueImpl.of("BTCUSD", 1));
+        assertEquals(KeyValueImpl.of("ETHUSD", 3), volumes.take());
+        assertEquals(KeyValueImpl.of("BTCUSD", 1), volumes.take());
+        assertTrue(volumes.isEmpty());
+    }
+}
@@ -0,0 +1,84 @@
+package org.kpa.util.queue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConflatingTopicTest {
+    private final ConflatingTopic<String, Integer> topic = new ConflatingTopic<>();
+
+    @Test
+    public void testIndependentViews() throws InterruptedException {
+        ConflatingTopic<String, Integer>.Subscription fast = topic.subscribe();
+        ConflatingTopic<String, Integer>.Subscription slow = topic.subscribe();
+        topic.publish(KeyValueImpl.of("BTCUSD", 7001));
+        topic.publish(KeyValueImpl.of("ETHUSD", 250));
+        assertEquals(KeyValueImpl.of("BTCUSD", 7001), fast.take());
+
+        topic.publish(KeyValueImpl.of("BTCUSD", 7002));
+        assertEquals(KeyValueImpl.of("ETHUSD", 250), fast.take());
+        assertEquals(KeyValueImpl.of("BTCUSD", 7002), fast.take());
+        assertTrue(fast.isEmpty());
+
+        List<KeyValue<String, Integer>> batch = new ArrayList<>();
+        assertEquals(2, slow.drainTo(batch, 10));
+        assertEquals(Arrays.asList(KeyValueImpl.of("BTCUSD", 7002), KeyValueImpl.of("ETHUSD", 250)), batch);
+        assertTrue(slow.isEmpty());
+    }
+
+    @Test
+    public void testLateSubscriber() throws InterruptedException {
+        topic.publish(KeyValueImpl.of("BTCUSD", 7001));
+        ConflatingTopic<String, Integer>.Subscription first = topic.subscribe();
+        first.close();
+        topic.publish(KeyValueImpl.of("ETHUSD", 250));
+        assertEquals(0, topic.getSubscriptionsCount());
+
+        ConflatingTopic<String, Integer>.Subscription late = topic.subscribe();
+        List<KeyValue<String, Integer>> batch = new ArrayList<>();
+        assertEquals(2, late.drainTo(batch, 10));
+        assertTrue(batch.contains(KeyValueImpl.of("BTCUSD", 7001)));
+        assertTrue(batch.contains(KeyValueImpl.of("ETHUSD", 250)));
+        topic.publish(KeyValueImpl.of("BTCUSD", 7002));
+        assertEquals(KeyValueImpl.of("BTCUSD", 7002), late.take());
+    }
+
+    @Test
+    public void testSlowSubscriberDoesNotBlock() throws InterruptedException {
+        ConflatingTopic<String, Integer>.Subscription fast = topic.subscribe();
+        ConflatingTopic<String, Integer>.Subscription slow = topic.subscribe();
+        Map<String, Integer> lastPrices = new ConcurrentHashMap<>();
+        Thread consumer = new Thread(() -> {
+            try {
+                while (!Thread.interrupted()) {
+                    KeyValue<String, Integer> keyValue = fast.take();
+                    lastPrices.put(keyValue.getKey(), keyValue.getValue());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        consumer.start();
+        for (int i = 0; i < 100_000; i++) {
+            topic.publish(KeyValueImpl.of("BTCUSD", 7_000 + i));
+            topic.publish(KeyValueImpl.of("ETHUSD", 2_000 + i));
+        }
+        while (!fast.isEmpty()) TimeUnit.MILLISECONDS.sleep(10);
+        TimeUnit.MILLISECONDS.sleep(100);
+        consumer.interrupt();
+        assertEquals(7_000 + 99_999, (int) lastPrices.get("BTCUSD"));
+        assertEquals(2_000 + 99_999, (int) lastPrices.get("ETHUSD"));
+
+        // never consumed, still holds one entry per key
+        List<KeyValue<String, Integer>> batch = new ArrayList<>();
+        assertEquals(2, slow.drainTo(batch, 10));
+        assertEquals(Arrays.asList(KeyValueImpl.of("BTCUSD", 7_000 + 99_999), KeyValueImpl.of("ETHUSD", 2_000 + 99_999)), batch);
+    }
+}
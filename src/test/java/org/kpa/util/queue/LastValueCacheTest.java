@@ -0,0 +1,116 @@
+package org.kpa.util.queue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LastValueCacheTest {
+    private final LastValueCache<String, Integer> cache = new LastValueCache<>();
+    private final ConflatingQueue<String, Integer> queue = cache.feeding(new ConflatingQueueImpl<>());
+
+    @Test
+    public void testFeeding() throws InterruptedException {
+        assertNull(cache.get("BTCUSD"));
+        assertEquals(0, cache.getVersion("BTCUSD"));
+
+        queue.offer(KeyValueImpl.of("BTCUSD", 7001));
+        queue.offer(KeyValueImpl.of("ETHUSD", 250));
+        queue.offer(KeyValueImpl.of("BTCUSD", 7002));
+        assertEquals(7002, (int) cache.get("BTCUSD"));
+        assertEquals(2, cache.getVersion("BTCUSD"));
+        assertEquals(1, cache.getVersion("ETHUSD"));
+
+        assertEquals(KeyValueImpl.of("BTCUSD", 7002), queue.take());
+        assertEquals(KeyValueImpl.of("ETHUSD", 250), queue.take());
+        assertTrue(queue.isEmpty());
+        // taking from the queue doesn't affect the cache
+        assertEquals(7002, (int) cache.get("BTCUSD"));
+
+        List<LastValueCache.Entry<String, Integer>> snapshot = cache.snapshot();
+        snapshot.sort(Comparator.comparing(LastValueCache.Entry::getKey));
+        assertEquals(2, snapshot.size());
+        assertEquals("BTCUSD", snapshot.get(0).getKey());
+        assertEquals(7002, (int) snapshot.get(0).getValue());
+        assertEquals(2, snapshot.get(0).getVersion());
+        assertEquals(250, (int) snapshot.get(1).getValue());
+    }
+
+    @Test
+    public void testConcurrentProducersKeepCacheAndQueueInStep() throws Exception {
+        int producers = 4;
+        int rounds = 2_000;
+        // every round the producers race offers of one key, the queued value is then compared with the cached one
+        ConflatingQueue<String, Integer> queue = cache.feeding(new ConflatingQueueImpl<String, Integer>() {
+            @Override
+            public boolean offer(KeyValue<String, Integer> keyValue) {
+                boolean offered = super.offer(keyValue);
+                // widens the window between the queue and the cache update
+                Thread.yield();
+                return offered;
+            }
+        });
+        CyclicBarrier barrier = new CyclicBarrier(producers + 1);
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                int producer = p;
+                futures.add(executor.submit(() -> {
+                    for (int round = 0; round < rounds; round++) {
+                        barrier.await(10, TimeUnit.SECONDS);
+                        queue.offer(KeyValueImpl.of("BTCUSD", round * producers + producer));
+                        barrier.await(10, TimeUnit.SECONDS);
+                    }
+                    return null;
+                }));
+            }
+            List<KeyValue<String, Integer>> queued = new ArrayList<>();
+            for (int round = 0; round < rounds; round++) {
+                barrier.await(10, TimeUnit.SECONDS);
+                barrier.await(10, TimeUnit.SECONDS);
+                queued.clear();
+                assertEquals(1, queue.drainTo(queued, 1));
+                assertEquals("round " + round, queued.get(0).getValue(), cache.get("BTCUSD"));
+            }
+            for (Future<?> future : futures) future.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals((long) producers * rounds, cache.getVersion("BTCUSD"));
+    }
+
+    @Test
+    public void testMerge() throws InterruptedException {
+        LastValueCache<String, Integer> volumes = new LastValueCache<>(Integer::sum);
+        ConflatingQueue<String, Integer> queue = volumes.feeding(new ConflatingQueueImpl<>(Integer::sum));
+        queue.offer(KeyValueImpl.of("BTCUSD", 1));
+        queue.offer(KeyValueImpl.of("BTCUSD", 2));
+        assertEquals(3, (int) volumes.get("BTCUSD"));
+        assertEquals(KeyValueImpl.of("BTCUSD", 3), queue.take());
+        queue.offer(KeyValueImpl.of("BTCUSD", 4));
+        // the queue merges since the last take, the cache since the first update
+        assertEquals(7, (int) volumes.get("BTCUSD"));
+        assertEquals(KeyValueImpl.of("BTCUSD", 4), queue.take());
+        assertEquals(3, volumes.getVersion("BTCUSD"));
+    }
+
+    @Test
+    public void testRejectedOfferKeepsCache() {
+        LastValueCache<String, Integer> prices = new LastValueCache<>();
+        ConflatingQueue<String, Integer> queue = prices.feeding(
+                new BoundedConflatingQueue<>(1, OverflowPolicy.REJECT));
+        assertTrue(queue.offer(KeyValueImpl.of("BTCUSD", 7001)));
+        assertFalse(queue.offer(KeyValueImpl.of("ETHUSD", 250)));
+        assertNull(prices.get("ETHUSD"));
+        assertEquals(1, prices.size());
+    }
+}
@@ -0,0 +1,96 @@
+package org.kpa.util.queue;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LongConflatingQueueTest {
+    private static final int KEYS = 3_000;
+    private static final int OFFERS = 300_000;
+
+    @Test
+    public void testQueue() throws InterruptedException {
+        LongConflatingQueue<Integer> queue = new LongConflatingQueue<>(2);
+        assertTrue(queue.isEmpty());
+        queue.offer(1L, 7001);
+        queue.offer(2L, 250);
+        queue.offer(-5L, 6000);
+        queue.offer(1L, 7002);
+        assertFalse(queue.isEmpty());
+        StringBuilder taken = new StringBuilder();
+        for (int i = 0; i < 3; i++) {
+            queue.take((key, value) -> taken.append(key).append('=').append(value).append(';'));
+        }
+        assertEquals("1=7002;2=250;-5=6000;", taken.toString());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testManyKeys() throws InterruptedException {
+        LongConflatingQueue<Long> queue = new LongConflatingQueue<>(4);
+        for (long key = 0; key < KEYS; key++) queue.offer(key * 31, key);
+        for (long key = 0; key < KEYS; key++) queue.offer(key * 31, key + 1);
+        for (long key = 0; key < KEYS; key++) {
+            long expectedKey = key * 31;
+            long expectedValue = key + 1;
+            queue.take((k, v) -> {
+                assertEquals(expectedKey, k);
+                assertEquals(expectedValue, (long) v);
+            });
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentConsumerGetsLastValues() throws InterruptedException {
+        long[] boxed = consumeBoxed();
+        long[] primitive = consumePrimitive();
+        for (int key = 0; key < KEYS; key++) {
+            long lastOffered = OFFERS - KEYS + key;
+            assertEquals(lastOffered, boxed[key]);
+            assertEquals(lastOffered, primitive[key]);
+        }
+    }
+
+    private long[] consumeBoxed() throws InterruptedException {
+        ConflatingQueue<Long, Long> queue = new ConflatingQueueImpl<>();
+        long[] last = new long[KEYS];
+        Thread consumer = new Thread(() -> {
+            try {
+                while (!Thread.interrupted()) {
+                    KeyValue<Long, Long> keyValue = queue.take();
+                    last[keyValue.getKey().intValue()] = keyValue.getValue();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        consumer.start();
+        for (int i = 0; i < OFFERS; i++) queue.offer(KeyValueImpl.of((long) (i % KEYS), (long) i));
+        while (!queue.isEmpty()) TimeUnit.MILLISECONDS.sleep(10);
+        consumer.interrupt();
+        consumer.join();
+        return last;
+    }
+
+    private long[] consumePrimitive() throws InterruptedException {
+        LongConflatingQueue<Long> queue = new LongConflatingQueue<>(KEYS);
+        long[] last = new long[KEYS];
+        LongValueConsumer<Long> lastValues = (key, value) -> last[(int) key] = value;
+        Thread consumer = new Thread(() -> {
+            try {
+                while (!Thread.interrupted()) queue.take(lastValues);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        consumer.start();
+        for (int i = 0; i < OFFERS; i++) queue.offer(i % KEYS, (long) i);
+        while (!queue.isEmpty()) TimeUnit.MILLISECONDS.sleep(10);
+        consumer.interrupt();
+        consumer.join();
+        return last;
+    }
+}
@@ -0,0 +1,79 @@
+package org.kpa.util.queue;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class OffHeapConflatingQueueTest {
+    private static final int PRICE = 0;
+    private static final int SIZE = 8;
+    private static final int TS = 16;
+    private static final int RECORD_SIZE = 24;
+
+    @Test
+    public void testQueue() throws InterruptedException {
+        OffHeapConflatingQueue queue = new OffHeapConflatingQueue(RECORD_SIZE, 4);
+        FixedRecord out = new FixedRecord(RECORD_SIZE);
+        FixedRecord in = new FixedRecord(RECORD_SIZE);
+        assertTrue(queue.isEmpty());
+        queue.offer(1, out.putDouble(PRICE, 7001).putLong(SIZE, 10).putLong(TS, 1));
+        queue.offer(2, out.putDouble(PRICE, 250).putLong(SIZE, 5).putLong(TS, 2));
+        queue.offer(1, out.putDouble(PRICE, 7002).putLong(SIZE, 11).putLong(TS, 3));
+
+        assertEquals(1, queue.take(in));
+        assertEquals(7002, in.getDouble(PRICE), 0);
+        assertEquals(11, in.getLong(SIZE));
+        assertEquals(3, in.getLong(TS));
+        assertEquals(2, queue.take(in));
+        assertEquals(250, in.getDouble(PRICE), 0);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTooManyKeys() {
+        OffHeapConflatingQueue queue = new OffHeapConflatingQueue(RECORD_SIZE, 1);
+        FixedRecord out = new FixedRecord(RECORD_SIZE);
+        queue.offer(1, out);
+        queue.offer(2, out);
+    }
+
+    @Test
+    public void testConsistentReads() throws InterruptedException {
+        int keys = 3;
+        int updates = 500_000;
+        OffHeapConflatingQueue queue = new OffHeapConflatingQueue(RECORD_SIZE, keys);
+        long[] lastSeen = new long[keys];
+        AtomicInteger tornReads = new AtomicInteger();
+        Thread consumer = new Thread(() -> {
+            FixedRecord in = new FixedRecord(RECORD_SIZE);
+            try {
+                while (!Thread.interrupted()) {
+                    int key = (int) queue.take(in);
+                    long ts = in.getLong(TS);
+                    if (in.getDouble(PRICE) != ts || in.getLong(SIZE) != ts || ts < lastSeen[key]) {
+                        tornReads.incrementAndGet();
+                    }
+                    lastSeen[key] = ts;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        consumer.start();
+        FixedRecord out = new FixedRecord(RECORD_SIZE);
+        for (int i = 1; i <= updates; i++) {
+            for (int key = 0; key < keys; key++) {
+                queue.offer(key, out.putDouble(PRICE, i).putLong(SIZE, i).putLong(TS, i));
+            }
+        }
+        while (!queue.isEmpty()) TimeUnit.MILLISECONDS.sleep(10);
+        TimeUnit.MILLISECONDS.sleep(100);
+        consumer.interrupt();
+        consumer.join();
+        assertEquals(0, tornReads.get());
+        for (int key = 0; key < keys; key++) assertEquals(updates, lastSeen[key]);
+    }
+}
@@ -0,0 +1,82 @@
+package org.kpa.util.queue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class PartitionedConflatingQueueStressTest {
+    private static final int PARTITIONS = 4;
+    private static final int KEYS = 100;
+    private final PartitionedConflatingQueue<String, Integer> queue = new PartitionedConflatingQueue<>(PARTITIONS);
+    private final Map<String, Integer> lastPrices = new ConcurrentHashMap<>();
+    private final Map<String, Integer> partitionByKey = new ConcurrentHashMap<>();
+    private final AtomicInteger orderViolations = new AtomicInteger();
+    private final AtomicInteger partitionViolations = new AtomicInteger();
+    private final List<Thread> consumerThreads = new ArrayList<>();
+
+    @Test
+    public void testPartitions() throws InterruptedException {
+        int cpus = Math.max(Runtime.getRuntime().availableProcessors() - 1, 1);
+        System.out.println("Running testPartitions on " + cpus + " producer threads");
+        ExecutorService service = Executors.newFixedThreadPool(cpus);
+        for (int step = 0; step < cpus; step++) {
+            int finalStep = step;
+            service.submit(() -> {
+                // each producer owns its keys, so their values grow monotonically
+                for (int i = 0; i < 20_000; i++) {
+                    for (int k = finalStep; k < KEYS; k += cpus) {
+                        queue.offer(KeyValueImpl.of("SYM" + k, i));
+                    }
+                }
+            });
+        }
+        service.shutdown();
+        service.awaitTermination(100, TimeUnit.SECONDS);
+        while (!queue.isEmpty()) Thread.sleep(100);
+        Thread.sleep(100);
+        for (int k = 0; k < KEYS; k++) {
+            assertEquals(19_999, (int) lastPrices.get("SYM" + k));
+        }
+        assertEquals(0, orderViolations.get());
+        assertEquals(0, partitionViolations.get());
+    }
+
+    @Before
+    public void prepare() {
+        for (int p = 0; p < PARTITIONS; p++) {
+            int partition = p;
+            Thread thread = new Thread(() -> {
+                while (!Thread.interrupted()) {
+                    try {
+                        KeyValue<String, Integer> keyVal = queue.take(partition);
+                        if (partitionByKey.computeIfAbsent(keyVal.getKey(), k -> partition) != partition) {
+                            partitionViolations.incrementAndGet();
+                        }
+                        Integer prev = lastPrices.put(keyVal.getKey(), keyVal.getValue());
+                        if (prev != null && prev > keyVal.getValue()) orderViolations.incrementAndGet();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "partition-" + p);
+            consumerThreads.add(thread);
+            thread.start();
+        }
+    }
+
+    @After
+    public void shutdown() {
+        consumerThreads.forEach(Thread::interrupt);
+    }
+}
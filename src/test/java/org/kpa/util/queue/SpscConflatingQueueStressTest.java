@@ -0,0 +1,17 @@
+package org.kpa.util.queue;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class SpscConflatingQueueStressTest extends ConflatingQueueImplStressTest {
+    @Override
+    protected ConflatingQueue<String, Integer> createQueue() {
+        return new SpscConflatingQueue<>(WaitStrategy.SPIN_THEN_PARK);
+    }
+
+    @Test
+    @Ignore("Single producer queue")
+    @Override
+    public void testRandomMultpleThreadWrite() {
+    }
+}
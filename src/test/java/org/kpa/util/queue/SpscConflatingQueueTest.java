@@ -0,0 +1,82 @@
+package org.kpa.util.queue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SpscConflatingQueueTest extends ConflatingQueueImplTest {
+    @Override
+    protected ConflatingQueue<String, Integer> createQueue() {
+        return new SpscConflatingQueue<>(WaitStrategy.BLOCKING);
+    }
+
+    @Test
+    public void testCoalescingConsumerParks() throws InterruptedException {
+        SpscConflatingQueue<String, Integer> spsc = new SpscConflatingQueue<>(WaitStrategy.BLOCKING);
+        spsc.offer(KeyValueImpl.of("BTCUSD", 7000));
+        List<KeyValue<String, Integer>> batch = new ArrayList<>();
+        Thread consumer = new Thread(() -> {
+            try {
+                spsc.takeCoalesced(batch, 2, 2, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        consumer.start();
+        TimeUnit.MILLISECONDS.sleep(200);
+        // the window is waited out parked, not spinning
+        assertEquals(Thread.State.TIMED_WAITING, consumer.getState());
+        spsc.offer(KeyValueImpl.of("ETHUSD", 250));
+        consumer.join(5_000);
+        assertFalse(consumer.isAlive());
+        assertEquals(2, batch.size());
+    }
+
+    @Test
+    public void testWaitStrategies() throws Exception {
+        for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+            SpscConflatingQueue<String, Integer> spsc = new SpscConflatingQueue<>(waitStrategy);
+            ExecutorService consumer = Executors.newSingleThreadExecutor();
+            try {
+                Future<KeyValue<String, Integer>> taken = consumer.submit(spsc::take);
+                TimeUnit.MILLISECONDS.sleep(50);
+                assertFalse(waitStrategy.name(), taken.isDone());
+                spsc.offer(KeyValueImpl.of("BTCUSD", 7000));
+                assertEquals(waitStrategy.name(), KeyValueImpl.of("BTCUSD", 7000), taken.get(5, TimeUnit.SECONDS));
+            } finally {
+                consumer.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    public void testBlockingConsumerParksAndSpinningDoesNot() throws InterruptedException {
+        assertEquals(Thread.State.WAITING, waitingState(WaitStrategy.BLOCKING));
+        assertEquals(Thread.State.RUNNABLE, waitingState(WaitStrategy.BUSY_SPIN));
+    }
+
+    private static Thread.State waitingState(WaitStrategy waitStrategy) throws InterruptedException {
+        SpscConflatingQueue<String, Integer> spsc = new SpscConflatingQueue<>(waitStrategy);
+        Thread consumer = new Thread(() -> {
+            try {
+                spsc.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        consumer.start();
+        TimeUnit.MILLISECONDS.sleep(200);
+        Thread.State state = consumer.getState();
+        spsc.offer(KeyValueImpl.of("BTCUSD", 7000));
+        consumer.join(5_000);
+        assertFalse(consumer.isAlive());
+        return state;
+    }
+}